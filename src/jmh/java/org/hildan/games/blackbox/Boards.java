@@ -0,0 +1,57 @@
+package org.hildan.games.blackbox;
+
+import java.util.Random;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+
+/**
+ * Helpers to set up the boards of the benchmarks. Everything random is seeded, so that the
+ * benchmarks of different commits work on the same grids.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class Boards {
+
+    /**
+     * The seed of all the random grids of the benchmarks.
+     */
+    public static final long SEED = 42;
+
+    /**
+     * Returns the geometry of a board description.
+     *
+     * @param board
+     *            A board description of the form {@code <size>x<nBalls>}, such as {@code "6x3"}.
+     * @return the geometry of the board.
+     */
+    public static BoardGeometry getGeometry(String board) {
+        return BoardGeometry.of(Integer.parseInt(board.split("x")[0]));
+    }
+
+    /**
+     * Returns the number of balls of a board description.
+     *
+     * @param board
+     *            A board description of the form {@code <size>x<nBalls>}, such as {@code "6x3"}.
+     * @return the number of balls of the board.
+     */
+    public static int getNbBalls(String board) {
+        return Integer.parseInt(board.split("x")[1]);
+    }
+
+    /**
+     * Returns a random set of balls for the specified geometry.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of balls.
+     * @param random
+     *            The random generator to use.
+     * @return a set of exactly {@code nBalls} balls.
+     */
+    public static BallSet randomBalls(BoardGeometry geometry, int nBalls, Random random) {
+        return BallSet.random(geometry, nBalls, random);
+    }
+}
@@ -0,0 +1,56 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.Random;
+
+import org.hildan.games.blackbox.Boards;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the scoring of the ports, after a first shot.
+ * <p>
+ * {@link SolvingAssistant#chooseEntryPorts(ScoringStrategy...)} is measured instead of
+ * {@link SolvingAssistant#chooseEntryPort()}, which would only measure a lookup in the
+ * {@link TranspositionCache} after the first invocation.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+@State(Scope.Thread)
+public class ChooseEntryPortBenchmark {
+
+    @Param({ "5x1", "5x3", "5x5", "6x4", "8x3", "10x2", "10x3" })
+    public String board;
+
+    private SolvingAssistant assistant;
+
+    private ScoringStrategy strategy;
+
+    @Setup
+    public void setUp() {
+        BoardGeometry geometry = Boards.getGeometry(board);
+        int nBalls = Boards.getNbBalls(board);
+        Grid secret = new Grid(Boards.randomBalls(geometry, nBalls, new Random(Boards.SEED)));
+        assistant = new SolvingAssistant(geometry, nBalls);
+        strategy = new ExpectedRemainingStrategy();
+        int port = assistant.chooseEntryPort();
+        int outcome = secret.shoot(port);
+        if (outcome == Propagator.HIT) {
+            assistant.setHit(port);
+        } else if (outcome == port) {
+            assistant.setReflect(port);
+        } else {
+            assistant.setDetour(port, outcome);
+        }
+    }
+
+    @Benchmark
+    public int[] chooseEntryPorts() {
+        return assistant.chooseEntryPorts(strategy);
+    }
+}
@@ -0,0 +1,100 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.Random;
+
+import org.hildan.games.blackbox.Boards;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.ports.Ports;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the enumeration of all the possible grids, and their filtering by the outcomes of a
+ * few shots.
+ * <p>
+ * The boards are limited to the ones that fit in the heap, 10x5 has 75 million grids.
+ * <p>
+ * The filtering is destructive, so each invocation filters its own copy of grids generated once
+ * per trial, in a separate {@link Filtering} state: {@link #generate()} has no per-invocation
+ * setup, and the allocations reported by the gc profiler for each benchmark are its own. The
+ * copies share the expansion of the first observation, like the games of the self-play and of the
+ * server, so after the warmup the filtering is measured as these games see it.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+@State(Scope.Thread)
+public class PossibleGridListBenchmark {
+
+    /**
+     * The number of shots applied by {@link #removeInconsistentGrids()}.
+     */
+    private static final int N_SHOTS = 3;
+
+    @Param({ "5x1", "5x3", "5x5", "6x4", "8x3", "10x2", "10x3" })
+    public String board;
+
+    private BoardGeometry geometry;
+
+    private int nBalls;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        geometry = Boards.getGeometry(board);
+        nBalls = Boards.getNbBalls(board);
+    }
+
+    @Benchmark
+    public PossibleGridList generate() {
+        return new PossibleGridList(geometry, nBalls, SolverListener.NONE);
+    }
+
+    @Benchmark
+    public int removeInconsistentGrids(Filtering filtering) {
+        PossibleGridList grids = filtering.grids;
+        for (int port : filtering.shots) {
+            grids.removeInconsistentGrids(port, filtering.observations);
+        }
+        return grids.size();
+    }
+
+    /**
+     * The grids to filter, and the shots to filter them with.
+     */
+    @State(Scope.Thread)
+    public static class Filtering {
+
+        private PossibleGridList universe;
+
+        private Ports observations;
+
+        private int[] shots;
+
+        private PossibleGridList grids;
+
+        @Setup(Level.Trial)
+        public void setUpTrial(PossibleGridListBenchmark benchmark) {
+            BoardGeometry geometry = benchmark.geometry;
+            int nBalls = benchmark.nBalls;
+            universe = new PossibleGridList(geometry, nBalls, SolverListener.NONE);
+            Random random = new Random(Boards.SEED);
+            Grid secret = new Grid(Boards.randomBalls(geometry, nBalls, random));
+            secret.shootAll();
+            observations = secret.getPorts();
+            shots = new int[N_SHOTS];
+            for (int s = 0; s < N_SHOTS; s++) {
+                shots[s] = random.nextInt(geometry.getNbPorts());
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpInvocation() {
+            // only copies the bitmap of the remaining grids
+            grids = new PossibleGridList(universe, SolverListener.NONE);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.hildan.games.blackbox.model;
+
+import java.util.Random;
+
+import org.hildan.games.blackbox.Boards;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the tracing of the rays of a single grid.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+@State(Scope.Thread)
+public class PropagationBenchmark {
+
+    @Param({ "5x1", "5x3", "5x5", "6x4", "8x3", "8x5", "10x2", "10x5" })
+    public String board;
+
+    private BallSet balls;
+
+    private int nPorts;
+
+    private Propagator propagator;
+
+    @Setup
+    public void setUp() {
+        BoardGeometry geometry = Boards.getGeometry(board);
+        balls = Boards.randomBalls(geometry, Boards.getNbBalls(board), new Random(Boards.SEED));
+        nPorts = geometry.getNbPorts();
+        propagator = new Propagator(balls);
+    }
+
+    @Benchmark
+    public void propagateAllRays(Blackhole blackhole) {
+        for (int port = 0; port < nPorts; port++) {
+            blackhole.consume(propagator.propagateRay(port));
+        }
+    }
+
+    @Benchmark
+    public Grid shootAll() {
+        Grid grid = new Grid(balls);
+        grid.shootAll();
+        return grid;
+    }
+}
@@ -0,0 +1,101 @@
+package org.hildan.games.blackbox;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.hildan.games.blackbox.ai.Progress;
+import org.hildan.games.blackbox.ai.SolverListener;
+import org.hildan.games.blackbox.ai.SolverPhase;
+import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.ports.State;
+import org.hildan.utils.console.drawing.progress.AbstractProgressBar;
+import org.hildan.utils.console.drawing.progress.OneTimeProgressBar;
+
+/**
+ * A {@link SolverListener} that prints the events on the console.
+ * <p>
+ * The progress bars are drawn by a background thread, which reads the {@link Progress} of the
+ * current phase a few times per second, so that the solving threads never wait for the console.
+ * This daemon thread is shared by all the listeners, which are created for every game.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class ConsoleSolverListener implements SolverListener {
+
+    private static final long REFRESH_PERIOD_MS = 100;
+
+    /**
+     * The resolution of the progress bars, whatever the amount of work.
+     */
+    private static final int BAR_STEPS = 1000;
+
+    private static final int BAR_WIDTH = 60;
+
+    private static final ScheduledExecutorService DRAWER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "progress-bar");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private AbstractProgressBar bar;
+
+    private ScheduledFuture<?> refresh;
+
+    @Override
+    public synchronized void phaseStarted(SolverPhase phase, Progress progress) {
+        if (progress.getTotal() == 0) {
+            System.out.print(phase.getDescription() + "...");
+            return;
+        }
+        System.out.println(phase.getDescription() + " (" + progress.getTotal() + ")...");
+        bar = new OneTimeProgressBar(BAR_STEPS, BAR_WIDTH);
+        bar.begin();
+        refresh = DRAWER.scheduleAtFixedRate(() -> draw(progress), REFRESH_PERIOD_MS, REFRESH_PERIOD_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void draw(Progress progress) {
+        if (bar != null) {
+            bar.printProgress((int) (progress.getDone() * BAR_STEPS / progress.getTotal()));
+        }
+    }
+
+    @Override
+    public synchronized void phaseEnded(SolverPhase phase) {
+        if (bar == null) {
+            System.out.println(" Done.");
+            return;
+        }
+        refresh.cancel(false);
+        bar.printProgress(BAR_STEPS);
+        bar.end();
+        bar = null;
+        System.out.println();
+    }
+
+    @Override
+    public void portChosen(int port, long nPossibilities, boolean exact) {
+        String about = exact ? "" : "About ";
+        System.out.println(about + nPossibilities + " possibilities left.");
+    }
+
+    @Override
+    public void portTested(Grid grid, int port, State state) {
+        System.out.println("Shooting from " + port);
+        System.out.println("Discovered state: " + state);
+        System.out.println(grid);
+    }
+
+    @Override
+    public void solutionFound(Grid solution, int nSolutions) {
+        if (nSolutions > 1) {
+            System.out.println("Solution found, up to " + (nSolutions - 1)
+                    + " alternative(s) that no shot can tell apart:");
+        } else {
+            System.out.println("Solution found:");
+        }
+        System.out.println(solution);
+    }
+}
@@ -1,17 +1,19 @@
 package org.hildan.games.blackbox;
 
-import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.GuessableGrid;
 import org.hildan.games.blackbox.model.Side;
 
 public class Game {
 
     private IOHelper io;
+    private BoardGeometry geometry;
     private int nBalls;
     private GuessableGrid grid;
 
-    public Game(IOHelper io) {
+    public Game(IOHelper io, BoardGeometry geometry) {
         this.io = io;
+        this.geometry = geometry;
     }
 
     /**
@@ -20,8 +22,8 @@ public class Game {
      * @return {@code true} if the user wants to play another game.
      */
     public boolean play() {
-        nBalls = io.getNumberOfBalls();
-        grid = new GuessableGrid(nBalls);
+        nBalls = io.getNumberOfBalls(geometry);
+        grid = new GuessableGrid(geometry, nBalls);
         while (true) {
             System.out.println("Current state of the entry ports and guesses:");
             System.out.println(grid);
@@ -60,9 +62,9 @@ public class Game {
     private void guessOne() {
         System.out.println("Enter the position where to place a guess:");
         System.out.print("row: ");
-        int i = io.getIntegerBetween(0, Grid.size - 1);
+        int i = io.getIntegerBetween(0, geometry.getSize() - 1);
         System.out.print("col: ");
-        int j = io.getIntegerBetween(0, Grid.size - 1);
+        int j = io.getIntegerBetween(0, geometry.getSize() - 1);
         grid.placeGuess(i, j);
     }
 
@@ -70,8 +72,8 @@ public class Game {
         System.out.print("Enter the side you want to shoot from (TOP, BOTTOM, LEFT or RIGHT): ");
         Side side = io.getSide();
         System.out.print("Enter the index you want to shoot from on side '" + side + "' (0 to "
-                + (Grid.size - 1) + "): ");
-        int index = io.getIndex();
+                + (geometry.getSize() - 1) + "): ");
+        int index = io.getIndex(geometry);
         grid.shoot(side, index);
     }
 }
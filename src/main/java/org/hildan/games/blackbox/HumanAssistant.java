@@ -1,18 +1,22 @@
 package org.hildan.games.blackbox;
 
+import java.util.List;
+
 import org.hildan.games.blackbox.ai.SolvingAssistant;
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.Grid;
 import org.hildan.games.blackbox.model.Side;
-import org.hildan.games.blackbox.model.ports.Ports;
 import org.hildan.games.blackbox.model.ports.State;
 
 public class HumanAssistant {
 
     private IOHelper io;
+    private BoardGeometry geometry;
     private SolvingAssistant helper;
 
-    public HumanAssistant(IOHelper io) {
+    public HumanAssistant(IOHelper io, BoardGeometry geometry) {
         this.io = io;
+        this.geometry = geometry;
     }
 
     /**
@@ -21,23 +25,40 @@ public class HumanAssistant {
      * @return {@code true} if the user wants help for another game.
      */
     public boolean helpMe() {
-        int nBalls = io.getNumberOfBalls();
-        helper = new SolvingAssistant(nBalls);
+        int nBalls = io.getNumberOfBalls(geometry);
+        helper = new SolvingAssistant(geometry, nBalls, new ConsoleSolverListener());
         while (!helper.isSolutionFound()) {
-            System.out.println(helper.getNbPossibilities() + " possibilities left.");
             int port = helper.chooseEntryPort();
-            Side side = Ports.getSide(port);
-            int index = Ports.getIndex(port);
+            if (port < 0) {
+                break;
+            }
+            Side side = geometry.getSide(port);
+            int index = geometry.getIndex(port);
             System.out.println("Try to shoot from the " + side + " side, position " + index + ".");
             updateState(port);
         }
-        System.out.println("Solution found! Try this:");
-        System.out.println(helper.getSolution());
+        printSolutions();
         System.out.println();
         System.out.println("Play again? (Y/N)");
         return io.getYesNo();
     }
 
+    private void printSolutions() {
+        if (!helper.isSolutionFound() || helper.getNbPossibilities() == 0) {
+            System.out.println("No grid matches these results, one of them must be wrong.");
+            return;
+        }
+        List<Grid> solutions = helper.getSolutions();
+        System.out.println("Solution found! Try this:");
+        System.out.println(solutions.get(0));
+        if (solutions.size() > 1) {
+            System.out.println("No shot can tell it apart from these alternatives:");
+            for (Grid alternative : solutions.subList(1, solutions.size())) {
+                System.out.println(alternative);
+            }
+        }
+    }
+
     private void updateState(int port) {
         System.out.print("What is the result (HIT, REFLECT, DETOUR)? ");
         State state = io.getState();
@@ -64,8 +85,8 @@ public class HumanAssistant {
         System.out.println("Please enter the port where the detour ended:");
         System.out.print("Side (TOP, BOTTOM, LEFT, RIGHT): ");
         Side side = io.getSide();
-        System.out.print("Index (0-" + (Grid.size - 1) + "): ");
-        int index = io.getIndex();
-        return Ports.getPortNum(side, index);
+        System.out.print("Index (0-" + (geometry.getSize() - 1) + "): ");
+        int index = io.getIndex(geometry);
+        return geometry.getPortNum(side, index);
     }
 }
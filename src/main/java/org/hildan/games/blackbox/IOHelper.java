@@ -2,7 +2,8 @@ package org.hildan.games.blackbox;
 
 import java.util.Scanner;
 
-import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.Side;
 import org.hildan.games.blackbox.model.ports.State;
 
@@ -14,9 +15,9 @@ public class IOHelper {
         this.sc = new Scanner(System.in);
     }
 
-    public int getNumberOfBalls() {
+    public int getNumberOfBalls(BoardGeometry geometry) {
         System.out.print("Enter number of balls to find: ");
-        return getIntegerBetween(1, Grid.size);
+        return getIntegerBetween(1, Math.min(geometry.getSize(), BallSet.MAX_KEY_BALLS));
     }
 
     public Side getSide() {
@@ -50,8 +51,8 @@ public class IOHelper {
         return state;
     }
 
-    public int getIndex() {
-        return getIntegerBetween(0, Grid.size - 1);
+    public int getIndex(BoardGeometry geometry) {
+        return getIntegerBetween(0, geometry.getSize() - 1);
     }
 
     public int getIntegerBetween(int min, int max) {
@@ -1,33 +1,199 @@
 package org.hildan.games.blackbox;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import org.hildan.games.blackbox.ai.ComputerSolver;
+import org.hildan.games.blackbox.ai.PuzzleGenerator;
+import org.hildan.games.blackbox.ai.SelfPlay;
+import org.hildan.games.blackbox.ai.TranspositionCache;
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.Grid;
 import org.hildan.games.blackbox.model.GuessableGrid;
+import org.hildan.games.blackbox.server.BlackboxServer;
 
 public class Main {
 
+    /**
+     * The maximum size of the grid, so that a {@link BallSet} key can represent the balls.
+     */
+    private static final int MAX_SIZE = 15;
+
+    /**
+     * The file the most used decisions are saved to, and loaded from at startup.
+     */
+    private static final Path OPENING_BOOK = Paths.get("blackbox-openings.txt");
+
+    private static final int OPENING_BOOK_SIZE = 1000;
+
+    private static final int MAX_SELF_PLAY_GAMES = 1000000;
+
+    private static final long SELF_PLAY_SEED = 42;
+
+    /**
+     * The number of candidates tried per requested puzzle before giving up on the difficulty band.
+     */
+    private static final int PUZZLE_CANDIDATES_PER_PUZZLE = 1000;
+
+    private static final int MAX_SERVER_CLIENTS = 10000;
+
+    private static final long SERVER_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    /**
+     * Runs the console game, the server with the arguments {@code --server [port]}, or the puzzle
+     * generator with the arguments
+     * {@code --generate <size> <nBalls> <nPuzzles> <minShots> <maxShots> <file> [seed]}.
+     *
+     * @param args
+     *            The command line arguments.
+     */
     public static void main(String[] args) {
+        TranspositionCache cache = TranspositionCache.getShared();
+        if (Files.exists(OPENING_BOOK)) {
+            try {
+                cache.load(OPENING_BOOK);
+            } catch (IOException e) {
+                System.out.println("Could not load the opening book: " + e.getMessage());
+            }
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            serve(args, cache);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate")) {
+            generate(args, cache);
+            return;
+        }
         IOHelper io = new IOHelper();
         System.out.print("Before anything, please set the size of the grid:");
-        Grid.size = io.getIntegerBetween(2, 10);
+        BoardGeometry geometry = BoardGeometry.of(io.getIntegerBetween(2, MAX_SIZE));
         System.out.println("What would you like to do?");
         System.out.println("  0 - Play a game");
         System.out.println("  1 - Get help for an external game");
         System.out.println("  2 - Watch you solve a random grid");
+        System.out.println("  3 - Measure your performance on many random grids");
         System.out.print("Your choice: ");
-        int choice = io.getIntegerBetween(0, 2);
+        int choice = io.getIntegerBetween(0, 3);
         if (choice == 0) {
-            Game game = new Game(io);
+            Game game = new Game(io, geometry);
             while (game.play()) {
             }
         } else if (choice == 1) {
-            HumanAssistant ha = new HumanAssistant(io);
+            HumanAssistant ha = new HumanAssistant(io, geometry);
             while (ha.helpMe()) {
             }
+        } else if (choice == 2) {
+            int nBalls = io.getNumberOfBalls(geometry);
+            Grid grid = new GuessableGrid(geometry, nBalls); // no balls displayed when printing
+            System.out.println(grid);
+            new ComputerSolver(grid, new ConsoleSolverListener()).solve();
         } else {
-            int nBalls = io.getNumberOfBalls();
-            Grid grid = new GuessableGrid(nBalls); // no balls displayed when printing
-            new ComputerSolver(grid).solve();
+            int nBalls = io.getNumberOfBalls(geometry);
+            System.out.print("Number of games:");
+            int nGames = io.getIntegerBetween(1, MAX_SELF_PLAY_GAMES);
+            System.out.println("Playing...");
+            SelfPlay selfPlay = new SelfPlay(geometry, nBalls, Runtime.getRuntime().availableProcessors());
+            try {
+                System.out.println(selfPlay.play(nGames, SELF_PLAY_SEED).toJson());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        saveOpeningBook(cache);
+    }
+
+    private static void serve(String[] args, TranspositionCache cache) {
+        int port;
+        try {
+            port = args.length > 1 ? parseIntBetween(args[1], "port", 0, 65535) : BlackboxServer.DEFAULT_PORT;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid arguments: " + e.getMessage());
+            return;
+        }
+        BlackboxServer server = new BlackboxServer(port, Runtime.getRuntime().availableProcessors(),
+                MAX_SERVER_CLIENTS, SERVER_IDLE_TIMEOUT_MILLIS);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.out.println("Could not start the server: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            saveOpeningBook(cache);
+        }));
+        System.out.println("Listening on port " + server.getPort());
+        try {
+            server.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void generate(String[] args, TranspositionCache cache) {
+        if (args.length < 7) {
+            System.out.println("Usage: --generate <size> <nBalls> <nPuzzles> <minShots> <maxShots> <file> [seed]");
+            return;
+        }
+        PuzzleGenerator generator;
+        int nPuzzles;
+        int minShots;
+        int maxShots;
+        long seed;
+        try {
+            int size = parseIntBetween(args[1], "size", 2, MAX_SIZE);
+            BoardGeometry geometry = BoardGeometry.of(size);
+            int nBalls = parseIntBetween(args[2], "nBalls", 1, Math.min(size, BallSet.MAX_KEY_BALLS));
+            nPuzzles = parseIntBetween(args[3], "nPuzzles", 1, Integer.MAX_VALUE);
+            minShots = parseIntBetween(args[4], "minShots", 0, Integer.MAX_VALUE);
+            maxShots = parseIntBetween(args[5], "maxShots", minShots, Integer.MAX_VALUE);
+            seed = args.length > 7 ? Long.parseLong(args[7]) : SELF_PLAY_SEED;
+            generator = new PuzzleGenerator(geometry, nBalls, Runtime.getRuntime().availableProcessors());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid arguments: " + e.getMessage());
+            return;
+        }
+        try (Writer out = Files.newBufferedWriter(Paths.get(args[6]))) {
+            System.out.println(generator.generate(nPuzzles, minShots, maxShots, seed,
+                    (long) nPuzzles * PUZZLE_CANDIDATES_PER_PUZZLE, out).toJson());
+        } catch (IOException e) {
+            System.out.println("Could not write the puzzles: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        saveOpeningBook(cache);
+    }
+
+    /**
+     * Parses an integer command line argument.
+     *
+     * @throws IllegalArgumentException
+     *             if the argument is not an integer between {@code min} and {@code max}.
+     */
+    private static int parseIntBetween(String arg, String name, int min, int max) {
+        int value;
+        try {
+            value = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer: " + arg);
+        }
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(name + " must be between " + min + " and " + max);
+        }
+        return value;
+    }
+
+    private static void saveOpeningBook(TranspositionCache cache) {
+        try {
+            cache.save(OPENING_BOOK, OPENING_BOOK_SIZE);
+        } catch (IOException e) {
+            System.out.println("Could not save the opening book: " + e.getMessage());
         }
     }
 }
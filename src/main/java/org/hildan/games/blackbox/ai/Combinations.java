@@ -0,0 +1,212 @@
+package org.hildan.games.blackbox.ai;
+
+/**
+ * The {@code k}-element subsets of {@code {0, ..., n-1}}, enumerated lazily in colexicographic
+ * order.
+ * <p>
+ * A combination is an array of {@code k} increasing elements {@code c[0] < c[1] < ... < c[k-1]}.
+ * Its rank is given by the combinatorial number system: {@code rank = C(c[0], 1) + C(c[1], 2) + ...
+ * + C(c[k-1], k)}. This allows to jump directly to any combination with {@link #unrank(long, int[])}
+ * , and then walk through the following ones with {@link #next(int[])}, without ever holding the
+ * whole list in memory.
+ * <p>
+ * The combinations can also be enumerated in revolving-door order, where two consecutive
+ * combinations differ by exactly one element (see Kreher and Stinson, <i>Combinatorial
+ * Algorithms</i>, section 2.3.3).
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class Combinations {
+
+    private final int n;
+
+    private final int k;
+
+    /**
+     * {@code binomials[m][j]} is {@code C(m, j)}.
+     */
+    private final long[][] binomials;
+
+    /**
+     * Creates the set of {@code k}-element subsets of {@code {0, ..., n-1}}.
+     *
+     * @param n
+     *            The number of elements to choose from.
+     * @param k
+     *            The number of elements in each combination.
+     */
+    Combinations(int n, int k) {
+        if (k < 0 || k > n) {
+            throw new IllegalArgumentException("Cannot choose " + k + " elements among " + n);
+        }
+        this.n = n;
+        this.k = k;
+        binomials = new long[n + 1][k + 1];
+        for (int m = 0; m <= n; m++) {
+            binomials[m][0] = 1;
+            for (int j = 1; j <= Math.min(m, k); j++) {
+                binomials[m][j] = Math.addExact(binomials[m - 1][j - 1], binomials[m - 1][j]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of elements in each combination.
+     *
+     * @return the number of elements in each combination.
+     */
+    int getK() {
+        return k;
+    }
+
+    /**
+     * Returns the number of combinations.
+     *
+     * @return the number of combinations, {@code C(n, k)}.
+     */
+    long count() {
+        return binomials[n][k];
+    }
+
+    /**
+     * Returns the number of combinations of fewer elements, among fewer elements.
+     *
+     * @param m
+     *            The number of elements to choose from, at most {@code n}.
+     * @param j
+     *            The number of elements in each combination, at most {@code k}.
+     * @return {@code C(m, j)}, 0 if {@code j > m}.
+     */
+    long count(int m, int j) {
+        return binomials[m][j];
+    }
+
+    /**
+     * Returns the rank of the specified combination.
+     *
+     * @param combination
+     *            The combination to get the rank of.
+     * @return the rank of the specified combination, between 0 and {@link #count()} (exclusive).
+     */
+    long rank(int[] combination) {
+        long rank = 0;
+        for (int i = 0; i < k; i++) {
+            rank += binomials[combination[i]][i + 1];
+        }
+        return rank;
+    }
+
+    /**
+     * Fills the specified array with the combination of the specified rank.
+     *
+     * @param rank
+     *            The rank of the combination to get, between 0 and {@link #count()} (exclusive).
+     * @param combination
+     *            The array to store the {@code k} elements of the combination into.
+     */
+    void unrank(long rank, int[] combination) {
+        if (rank < 0 || rank >= count()) {
+            throw new IllegalArgumentException("Rank " + rank + " out of bounds [0, " + count() + ")");
+        }
+        int c = n;
+        for (int i = k - 1; i >= 0; i--) {
+            // largest c such that C(c, i+1) <= rank
+            do {
+                c--;
+            } while (binomials[c][i + 1] > rank);
+            combination[i] = c;
+            rank -= binomials[c][i + 1];
+        }
+    }
+
+    /**
+     * Replaces the specified combination by the next one in colexicographic order, which is the
+     * combination with the next rank.
+     *
+     * @param combination
+     *            The combination to update.
+     * @return {@code true} if the combination was updated, {@code false} if it was the last one.
+     */
+    boolean next(int[] combination) {
+        for (int i = 0; i < k; i++) {
+            int limit = i + 1 < k ? combination[i + 1] : n;
+            if (combination[i] + 1 < limit) {
+                combination[i]++;
+                for (int j = 0; j < i; j++) {
+                    combination[j] = j;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills the specified array with the combination of the specified rank in revolving-door order.
+     *
+     * @param rank
+     *            The rank of the combination to get, between 0 and {@link #count()} (exclusive).
+     * @param combination
+     *            The array to store the {@code k} elements of the combination into.
+     */
+    void unrankRevolvingDoor(long rank, int[] combination) {
+        if (rank < 0 || rank >= count()) {
+            throw new IllegalArgumentException("Rank " + rank + " out of bounds [0, " + count() + ")");
+        }
+        int x = n;
+        for (int i = k; i >= 1; i--) {
+            while (binomials[x][i] > rank) {
+                x--;
+            }
+            combination[i - 1] = x;
+            rank = binomials[x + 1][i] - rank - 1;
+        }
+    }
+
+    /**
+     * Replaces the specified combination by the next one in revolving-door order. Exactly one
+     * element is replaced by another one, and the elements are kept in increasing order.
+     *
+     * @param combination
+     *            The combination to update.
+     * @return {@code true} if the combination was updated, {@code false} if it was the last one.
+     */
+    boolean nextRevolvingDoor(int[] combination) {
+        if (k == 0) {
+            // the only combination of no element
+            return false;
+        }
+        // j is the first index where the combination is not 0, 1, ..., j-1
+        int j = 0;
+        while (j < k && combination[j] == j) {
+            j++;
+        }
+        if ((k - j) % 2 == 0) {
+            if (j == 0) {
+                combination[0]--;
+            } else if (j == n) {
+                // the only combination of all the elements
+                return false;
+            } else {
+                combination[j - 1] = j;
+                if (j > 1) {
+                    combination[j - 2] = j - 1;
+                }
+            }
+        } else {
+            int following = j + 1 < k ? combination[j + 1] : n;
+            if (following != combination[j] + 1) {
+                if (j > 0) {
+                    combination[j - 1] = combination[j];
+                }
+                combination[j]++;
+            } else if (j + 1 < k) {
+                combination[j + 1] = combination[j];
+                combination[j] = j;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+}
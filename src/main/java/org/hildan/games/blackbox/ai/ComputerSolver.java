@@ -1,5 +1,7 @@
 package org.hildan.games.blackbox.ai;
 
+import java.util.List;
+
 import org.hildan.games.blackbox.model.Grid;
 import org.hildan.games.blackbox.model.ports.State;
 
@@ -7,6 +9,7 @@ public class ComputerSolver {
 
     private Grid gridToSolve;
     private SolvingAssistant helper;
+    private SolverListener listener;
 
     /**
      * Creates a new solver for the specified {@code GuessableGrid}.
@@ -15,21 +18,30 @@ public class ComputerSolver {
      *            The grid to solve.
      */
     public ComputerSolver(Grid gridToSolve) {
+        this(gridToSolve, SolverListener.NONE);
+    }
+
+    /**
+     * Creates a new solver for the specified {@code GuessableGrid}.
+     * 
+     * @param gridToSolve
+     *            The grid to solve.
+     * @param listener
+     *            The listener to report the progress, the shots and the solution to.
+     */
+    public ComputerSolver(Grid gridToSolve, SolverListener listener) {
         this.gridToSolve = gridToSolve;
-        helper = new SolvingAssistant(gridToSolve.getNBalls());
+        this.listener = listener;
+        helper = new SolvingAssistant(gridToSolve.getGeometry(), gridToSolve.getNBalls(), listener);
     }
 
     public void solve() {
-        System.out.println(gridToSolve);
         int port;
         while (!helper.isSolutionFound()
                 && (port = helper.chooseEntryPort()) >= 0) {
-            System.out.println(helper.getNbPossibilities() + " possibilities left.");
-            System.out.println("Shooting from " + port);
-            Integer twin = gridToSolve.shoot(port);
+            int exit = gridToSolve.shoot(port);
             State state = gridToSolve.getState(port);
-            System.out.println("Discovered state: " + state);
-            System.out.println(gridToSolve);
+            listener.portTested(gridToSolve, port, state);
             switch (state) {
             case HIT:
                 helper.setHit(port);
@@ -38,7 +50,7 @@ public class ComputerSolver {
                 helper.setReflect(port);
                 break;
             case DETOUR:
-                helper.setDetour(port, twin);
+                helper.setDetour(port, exit);
                 break;
             case UNKNOWN:
             default:
@@ -46,7 +58,7 @@ public class ComputerSolver {
                         "INTERNAL ERROR: The state of the port must be known at this point.");
             }
         }
-        System.out.println("Solution found:");
-        System.out.println(helper.getSolution());
+        List<Grid> solutions = helper.getSolutions();
+        listener.solutionFound(solutions.get(0), solutions.size());
     }
 }
@@ -0,0 +1,309 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.ports.Ports;
+import org.hildan.games.blackbox.model.ports.State;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * A solver that does not store any grid, but searches the ball placements that are consistent with
+ * the observations on demand, by backtracking.
+ * <p>
+ * The cells are decided in the order the observed rays need them. Each ray is traced as if the
+ * undecided cells were empty: if it then contradicts the observed {@link State#HIT},
+ * {@link State#REFLECT} or {@link State#DETOUR}, one of the undecided cells it went by must hold a
+ * ball. A partial placement is abandoned as soon as a decided ray is wrong, or as soon as the wrong
+ * rays need more balls than there are left. Otherwise, the first undecided cell of the wrong ray
+ * that depends on the fewest cells is tried with a ball and without.
+ * <p>
+ * Once all the observed rays are decided, the remaining balls may go in any of the undecided
+ * cells, as no ray depends on them, so these placements are counted without being enumerated.
+ * <p>
+ * The search is bounded by a number of nodes, so that a decision never takes too long, and gives up
+ * when the budget runs out.
+ * <p>
+ * This allows to handle grids that are too big to enumerate all possible grids.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class ConstraintSolver {
+
+    private final int nCells;
+
+    private final int nPorts;
+
+    private final int nBalls;
+
+    private final long maxNodes;
+
+    private final Ports observations;
+
+    private final Propagator propagator;
+
+    private final Combinations combinations;
+
+    private final int[] observedPorts;
+
+    private final int[] expectedOutcomes;
+
+    private int nObserved;
+
+    private final boolean[] undecided;
+
+    private int nUndecided;
+
+    /**
+     * The cells of the balls placed so far.
+     */
+    private final int[] placed;
+
+    /**
+     * The cells that already account for a ball needed by a wrong ray, in the current node: the
+     * ones whose stamp is {@link #nStamps}.
+     */
+    private final long[] stamps;
+
+    private long nStamps;
+
+    private long nNodes;
+
+    private boolean aborted;
+
+    /**
+     * The visitor of the current search, or {@code null} when counting.
+     */
+    private LongPredicate visitor;
+
+    private long limit;
+
+    private long nCounted;
+
+    /**
+     * Creates a new {@code ConstraintSolver} for the board of the specified ports.
+     *
+     * @param nBalls
+     *            The number of hidden balls.
+     * @param observations
+     *            The observed ports. This object is read at the beginning of each search, so that
+     *            new observations are taken into account.
+     * @param maxNodes
+     *            The number of partial placements and consistent placements a search may go through
+     *            before giving up.
+     */
+    ConstraintSolver(int nBalls, Ports observations, long maxNodes) {
+        BoardGeometry geometry = observations.getGeometry();
+        this.nCells = geometry.getNbCells();
+        this.nPorts = geometry.getNbPorts();
+        this.nBalls = nBalls;
+        this.maxNodes = maxNodes;
+        this.observations = observations;
+        this.propagator = new Propagator(new BallSet(geometry));
+        this.combinations = new Combinations(nCells, nBalls);
+        this.observedPorts = new int[nPorts];
+        this.expectedOutcomes = new int[nPorts];
+        this.undecided = new boolean[nCells];
+        this.placed = new int[nBalls];
+        this.stamps = new long[nCells];
+    }
+
+    /**
+     * Counts the ball placements that are consistent with the observations, up to the specified
+     * limit. The placements that only differ in cells that no observed ray goes through are
+     * counted without being enumerated.
+     *
+     * @param limit
+     *            The count to stop at.
+     * @return the number of consistent placements, {@code limit} if there are at least that many,
+     *         or -1 if the budget ran out first.
+     */
+    long count(long limit) {
+        this.visitor = null;
+        this.limit = limit;
+        nCounted = 0;
+        return run() ? Math.min(nCounted, limit) : -1;
+    }
+
+    /**
+     * Goes through the ball placements that are consistent with the observations.
+     *
+     * @param visitor
+     *            The visitor to call with the {@link BallSet} key of each consistent placement. The
+     *            search stops as soon as it returns {@code false}.
+     * @return {@code false} if the budget ran out before the end of the search, {@code true}
+     *         otherwise.
+     */
+    boolean forEach(LongPredicate visitor) {
+        this.visitor = visitor;
+        return run();
+    }
+
+    private boolean run() {
+        nObserved = 0;
+        for (int port = 0; port < nPorts; port++) {
+            if (observations.isKnown(port)) {
+                observedPorts[nObserved] = port;
+                expectedOutcomes[nObserved] = observations.getOutcome(port);
+                nObserved++;
+            }
+        }
+        for (int cell = 0; cell < nCells; cell++) {
+            setUndecided(cell, true);
+        }
+        nUndecided = nCells;
+        nNodes = 0;
+        aborted = false;
+        try {
+            search(0, 0);
+        } finally {
+            for (int cell = 0; cell < nCells; cell++) {
+                setUndecided(cell, false);
+            }
+        }
+        return !aborted;
+    }
+
+    /**
+     * Decides the cells the observed rays depend on, the rays before the specified one being
+     * already decided and consistent.
+     *
+     * @return {@code false} if the search was stopped by the visitor or the budget, {@code true}
+     *         otherwise.
+     */
+    private boolean search(int firstRay, int nPlaced) {
+        if (++nNodes > maxNodes) {
+            aborted = true;
+            return false;
+        }
+        int nRemaining = nBalls - nPlaced;
+        if (nUndecided < nRemaining) {
+            // not enough room for the remaining balls
+            return true;
+        }
+        if (nRemaining == 0) {
+            // the undecided cells are all empty, like in the propagator
+            for (int ray = firstRay; ray < nObserved; ray++) {
+                if (propagator.propagateRay(observedPorts[ray]) != expectedOutcomes[ray]) {
+                    return true;
+                }
+            }
+            return visit(placed.clone());
+        }
+        int nextFirstRay = nObserved;
+        int branchCell = -1;
+        int branchSize = Integer.MAX_VALUE;
+        boolean branchWrong = false;
+        int nNeeded = 0;
+        nStamps++;
+        for (int ray = firstRay; ray < nObserved; ray++) {
+            int outcome = propagator.propagatePartialRay(observedPorts[ray]);
+            int size = propagator.getNbUndecidedCells();
+            boolean wrong = outcome != expectedOutcomes[ray];
+            if (size == 0) {
+                if (wrong) {
+                    return true;
+                }
+                continue;
+            }
+            nextFirstRay = Math.min(nextFirstRay, ray);
+            if (wrong && isDisjointFromStamped(size)) {
+                // this ray needs a ball in one of its own cells
+                stampUndecidedCells(size);
+                if (++nNeeded > nRemaining) {
+                    return true;
+                }
+            }
+            // fail first: a wrong ray that depends on few cells
+            if (wrong && (!branchWrong || size < branchSize) || !wrong && !branchWrong && branchCell < 0) {
+                branchCell = propagator.getUndecidedCell(0);
+                branchSize = size;
+                branchWrong = wrong;
+            }
+        }
+        return branchCell < 0 ? complete(nPlaced) : branch(nextFirstRay, nPlaced, branchCell);
+    }
+
+    private boolean isDisjointFromStamped(int size) {
+        for (int k = 0; k < size; k++) {
+            if (stamps[propagator.getUndecidedCell(k)] == nStamps) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void stampUndecidedCells(int size) {
+        for (int k = 0; k < size; k++) {
+            stamps[propagator.getUndecidedCell(k)] = nStamps;
+        }
+    }
+
+    /**
+     * Tries the specified cell with a ball, then without.
+     */
+    private boolean branch(int ray, int nPlaced, int cell) {
+        setUndecided(cell, false);
+        nUndecided--;
+        placed[nPlaced] = cell;
+        propagator.addBall(cell);
+        boolean goOn = search(ray, nPlaced + 1);
+        propagator.removeBall(cell);
+        if (goOn) {
+            goOn = search(ray, nPlaced);
+        }
+        nUndecided++;
+        setUndecided(cell, true);
+        return goOn;
+    }
+
+    /**
+     * Places the remaining balls in the undecided cells, in every possible way, all the observed
+     * rays being consistent.
+     */
+    private boolean complete(int nPlaced) {
+        int nRemaining = nBalls - nPlaced;
+        if (visitor == null) {
+            nCounted += combinations.count(nUndecided, nRemaining);
+            return nCounted < limit;
+        }
+        int[] free = new int[nUndecided];
+        for (int cell = 0, n = 0; cell < nCells; cell++) {
+            if (undecided[cell]) {
+                free[n++] = cell;
+            }
+        }
+        int[] chosen = new int[nRemaining];
+        Combinations completions = new Combinations(nUndecided, nRemaining);
+        completions.unrank(0, chosen);
+        int[] cells = Arrays.copyOf(placed, nBalls);
+        do {
+            if (++nNodes > maxNodes) {
+                aborted = true;
+                return false;
+            }
+            for (int k = 0; k < nRemaining; k++) {
+                cells[nPlaced + k] = free[chosen[k]];
+            }
+            if (!visit(cells.clone())) {
+                return false;
+            }
+        } while (completions.next(chosen));
+        return true;
+    }
+
+    private boolean visit(int[] cells) {
+        if (visitor == null) {
+            return ++nCounted < limit;
+        }
+        Arrays.sort(cells);
+        return visitor.test(BallSet.toKey(cells));
+    }
+
+    private void setUndecided(int cell, boolean isUndecided) {
+        undecided[cell] = isUndecided;
+        propagator.setUndecided(cell, isUndecided);
+    }
+}
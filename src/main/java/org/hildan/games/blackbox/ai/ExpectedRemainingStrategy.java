@@ -0,0 +1,22 @@
+package org.hildan.games.blackbox.ai;
+
+/**
+ * Scores a port with the expected number of grids left after testing it. The weight of each
+ * outcome is its probability, which is the number of grids for this outcome divided by the total
+ * number of grids.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class ExpectedRemainingStrategy implements ScoringStrategy {
+
+    @Override
+    public double score(int[] histogram) {
+        double totalGrids = 0;
+        double weightedSum = 0;
+        for (int n : histogram) {
+            totalGrids += n;
+            weightedSum += (double) n * n;
+        }
+        return weightedSum / totalGrids;
+    }
+}
@@ -0,0 +1,217 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.ports.Ports;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * A pool of ball placements drawn approximately uniformly among the ones that are consistent with
+ * the observations, for grids that have too many possible placements to enumerate them.
+ * <p>
+ * Each placement of the pool is the current state of a Metropolis chain: a move takes a random ball
+ * to a random cell, and is rejected if that cell already contains a ball or if the new placement
+ * contradicts an observation. The proposal being symmetric, the chains converge to the uniform
+ * distribution over the consistent placements.
+ * <p>
+ * Each chain has its own random generator, so that the pool does not depend on the number of
+ * threads used to move the chains.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class GridSampler {
+
+    private final int nCells;
+
+    private final int nPorts;
+
+    private final int nBalls;
+
+    private final Ports observations;
+
+    private final Random random;
+
+    private final int[][] chains;
+
+    private final Propagator[] propagators;
+
+    private final Random[] chainRandoms;
+
+    private int[] observedPorts;
+
+    private int[] expectedOutcomes;
+
+    /**
+     * Creates a new {@code GridSampler} for the board of the specified ports. As there are no
+     * observations yet, the placements are drawn uniformly at random.
+     *
+     * @param nBalls
+     *            The number of hidden balls.
+     * @param observations
+     *            The observed ports. This object is read by {@link #observe()}, so that new
+     *            observations are taken into account.
+     * @param nChains
+     *            The number of placements in the pool.
+     * @param seed
+     *            The seed of the random moves.
+     */
+    GridSampler(int nBalls, Ports observations, int nChains, long seed) {
+        BoardGeometry geometry = observations.getGeometry();
+        this.nCells = geometry.getNbCells();
+        this.nPorts = geometry.getNbPorts();
+        this.nBalls = nBalls;
+        this.observations = observations;
+        this.random = new Random(seed);
+        this.chains = new int[nChains][nBalls];
+        this.propagators = new Propagator[nChains];
+        this.chainRandoms = new Random[nChains];
+        this.observedPorts = new int[0];
+        this.expectedOutcomes = new int[0];
+        for (int c = 0; c < nChains; c++) {
+            chainRandoms[c] = new Random(random.nextLong());
+            propagators[c] = new Propagator(new BallSet(geometry));
+            for (int k = 0; k < nBalls; k++) {
+                int cell;
+                do {
+                    cell = random.nextInt(nCells);
+                } while (contains(chains[c], k, cell));
+                chains[c][k] = cell;
+                propagators[c].addBall(cell);
+            }
+        }
+    }
+
+    /**
+     * Takes into account the new observations. The placements that contradict them are replaced by
+     * copies of random consistent placements of the pool, which should then be {@link #mix(int)
+     * mixed}.
+     *
+     * @return the fraction of the pool that was consistent with the new observations. If it is 0,
+     *         the pool is left untouched, and should be {@link #reset(long[]) reset}.
+     */
+    double observe() {
+        int nObserved = 0;
+        observedPorts = new int[nPorts];
+        expectedOutcomes = new int[nPorts];
+        for (int port = 0; port < nPorts; port++) {
+            if (observations.isKnown(port)) {
+                observedPorts[nObserved] = port;
+                expectedOutcomes[nObserved] = observations.getOutcome(port);
+                nObserved++;
+            }
+        }
+        observedPorts = Arrays.copyOf(observedPorts, nObserved);
+        expectedOutcomes = Arrays.copyOf(expectedOutcomes, nObserved);
+
+        int[] consistent = IntStream.range(0, chains.length).parallel()
+                .filter(c -> isConsistent(propagators[c]))
+                .toArray();
+        if (consistent.length == 0) {
+            return 0;
+        }
+        int next = 0;
+        for (int c = 0; c < chains.length; c++) {
+            if (next < consistent.length && consistent[next] == c) {
+                next++;
+            } else {
+                moveChain(c, chains[consistent[random.nextInt(consistent.length)]]);
+            }
+        }
+        return (double) consistent.length / chains.length;
+    }
+
+    /**
+     * Restarts all the chains from the specified consistent placements, chosen at random.
+     *
+     * @param keys
+     *            The {@link BallSet} keys of some placements that are consistent with the
+     *            observations.
+     */
+    void reset(long[] keys) {
+        int[] cells = new int[nBalls];
+        for (int c = 0; c < chains.length; c++) {
+            BallSet.getCells(keys[random.nextInt(keys.length)], cells);
+            moveChain(c, cells);
+        }
+    }
+
+    /**
+     * Moves all the balls of a chain to the specified cells.
+     */
+    private void moveChain(int c, int[] cells) {
+        for (int cell : chains[c]) {
+            propagators[c].removeBall(cell);
+        }
+        System.arraycopy(cells, 0, chains[c], 0, nBalls);
+        for (int cell : chains[c]) {
+            propagators[c].addBall(cell);
+        }
+    }
+
+    /**
+     * Performs the specified number of Metropolis moves on each chain of the pool.
+     *
+     * @param nMoves
+     *            The number of moves to try on each chain.
+     */
+    void mix(int nMoves) {
+        IntStream.range(0, chains.length).parallel().forEach(c -> {
+            int[] cells = chains[c];
+            Propagator propagator = propagators[c];
+            Random chainRandom = chainRandoms[c];
+            for (int m = 0; m < nMoves; m++) {
+                int k = chainRandom.nextInt(nBalls);
+                int cell = chainRandom.nextInt(nCells);
+                if (contains(cells, nBalls, cell)) {
+                    continue;
+                }
+                propagator.removeBall(cells[k]);
+                propagator.addBall(cell);
+                if (isConsistent(propagator)) {
+                    cells[k] = cell;
+                } else {
+                    // rejected, the chain stays where it is
+                    propagator.removeBall(cell);
+                    propagator.addBall(cells[k]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts the placements of the pool by outcome of the ray shot from the specified port. A
+     * placement that appears several times in the pool is counted as many times.
+     *
+     * @param port
+     *            The port to shoot from.
+     * @param histogram
+     *            The array to add the counts into, indexed by outcome minus {@link Propagator#HIT}.
+     */
+    void fillHistogram(int port, int[] histogram) {
+        for (Propagator propagator : propagators) {
+            histogram[propagator.propagateRay(port) - Propagator.HIT]++;
+        }
+    }
+
+    private boolean isConsistent(Propagator propagator) {
+        for (int k = 0; k < observedPorts.length; k++) {
+            if (propagator.propagateRay(observedPorts[k]) != expectedOutcomes[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] cells, int n, int cell) {
+        for (int k = 0; k < n; k++) {
+            if (cells[k] == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
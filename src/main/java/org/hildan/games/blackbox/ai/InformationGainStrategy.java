@@ -0,0 +1,28 @@
+package org.hildan.games.blackbox.ai;
+
+/**
+ * Scores a port with the opposite of the information (in bits) its outcome is expected to give,
+ * which is the Shannon entropy of the outcome distribution.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class InformationGainStrategy implements ScoringStrategy {
+
+    private static final double LOG_2 = Math.log(2);
+
+    @Override
+    public double score(int[] histogram) {
+        double totalGrids = 0;
+        for (int n : histogram) {
+            totalGrids += n;
+        }
+        double entropy = 0;
+        for (int n : histogram) {
+            if (n != 0) {
+                double p = n / totalGrids;
+                entropy -= p * Math.log(p) / LOG_2;
+            }
+        }
+        return -entropy;
+    }
+}
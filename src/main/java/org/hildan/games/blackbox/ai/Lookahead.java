@@ -0,0 +1,250 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hildan.games.blackbox.model.ports.Ports;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * Chooses the entry port by looking several shots ahead, instead of only scoring the next shot.
+ * <p>
+ * The value of a set of grids is the expected number of shots needed to find the class of the right
+ * grid, when each shot is chosen to minimize this value. The search goes through the classes of
+ * indistinguishable grids, each class weighing as many grids as it contains. The value is computed
+ * exactly up to {@code depth} shots, and estimated from the number of grids left beyond. To bound
+ * the cost, only the {@code width} ports with the best {@link ExpectedRemainingStrategy greedy}
+ * score are explored at each level.
+ * <p>
+ * The value of each explored set of grids is memoized, because different sequences of shots often
+ * lead to the same grids. A port is abandoned as soon as the part of its value computed so far
+ * exceeds the best value found.
+ * <p>
+ * The outcome of each explored shot is set on the known ports while exploring the next levels, and
+ * rolled back afterwards, so that the ports already shot are skipped at every level.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class Lookahead {
+
+    /**
+     * The typical number of outcomes a shot splits the grids into, used to estimate the number of
+     * shots left beyond the lookahead depth.
+     */
+    private static final double BRANCHING = 3;
+
+    private final PossibleGridList grids;
+
+    private final int depth;
+
+    private final int width;
+
+    private final int nPorts;
+
+    private final Map<SubProblem, Double> values = new HashMap<>();
+
+    private Ports testPorts;
+
+    /**
+     * Creates a new {@code Lookahead} for the specified grids.
+     *
+     * @param grids
+     *            The possible grids, which must be {@link PossibleGridList#isExpanded() expanded}.
+     * @param depth
+     *            The number of shots to look ahead.
+     * @param width
+     *            The number of ports to explore at each level.
+     */
+    Lookahead(PossibleGridList grids, int depth, int width) {
+        this.grids = grids;
+        this.depth = depth;
+        this.width = width;
+        this.nPorts = grids.getGeometry().getNbPorts();
+    }
+
+    /**
+     * Chooses the best entry port to try.
+     *
+     * @param testPorts
+     *            The ports that are already known, which are not considered. Hypothetical outcomes
+     *            are set on them during the search, and rolled back before returning.
+     * @return the best port to try, or -1 if no unknown port tells anything about the grids.
+     */
+    int chooseEntryPort(Ports testPorts) {
+        this.testPorts = testPorts;
+        int[] ids = grids.getClassIds();
+        int[] candidates = getCandidatePorts(ids);
+        int bestPort = -1;
+        double bestValue = Double.POSITIVE_INFINITY;
+        for (int port : candidates) {
+            double value = evaluatePort(ids, port, depth, bestValue);
+            // strict comparison to keep the port with the best greedy score in case of a tie
+            if (value < bestValue) {
+                bestValue = value;
+                bestPort = port;
+            }
+        }
+        return bestPort;
+    }
+
+    /**
+     * Returns the expected number of shots needed to find the right class among the specified
+     * classes, looking the specified number of shots ahead.
+     */
+    private double evaluate(int[] ids, int depth) {
+        if (ids.length <= 1) {
+            return 0;
+        }
+        if (depth == 0) {
+            return estimate(ids.length);
+        }
+        SubProblem subProblem = new SubProblem(ids, depth);
+        Double cached = values.get(subProblem);
+        if (cached != null) {
+            return cached;
+        }
+        int[] candidates = getCandidatePorts(ids);
+        double bestValue = candidates.length == 0 ? 0 : Double.POSITIVE_INFINITY;
+        for (int port : candidates) {
+            bestValue = Math.min(bestValue, evaluatePort(ids, port, depth, bestValue));
+        }
+        values.put(subProblem, bestValue);
+        return bestValue;
+    }
+
+    /**
+     * Returns the expected number of shots needed to find the right class when shooting from the
+     * specified port first. If this value is at least {@code bound}, the computation may stop
+     * early, and the returned value is then only a lower bound (which is at least {@code bound}).
+     */
+    private double evaluatePort(int[] ids, int port, int depth, double bound) {
+        int[][] buckets = partition(ids, port);
+        double totalWeight = getWeight(ids);
+        double value = 1;
+        for (int o = 0; o < buckets.length; o++) {
+            int[] bucket = buckets[o];
+            if (bucket.length == 0) {
+                continue;
+            }
+            int mark = testPorts.mark();
+            try {
+                testPorts.setOutcome(port, o + Propagator.HIT);
+                value += getWeight(bucket) / totalWeight * evaluate(bucket, depth - 1);
+            } finally {
+                testPorts.rollback(mark);
+            }
+            if (value >= bound) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns a rough estimate of the number of shots needed to find the right class among the
+     * specified number of classes, assuming each shot splits them in {@link #BRANCHING} equally
+     * likely groups.
+     */
+    private static double estimate(int nClasses) {
+        return Math.log(nClasses) / Math.log(BRANCHING);
+    }
+
+    /**
+     * Returns the number of grids of the specified classes.
+     */
+    private int getWeight(int[] ids) {
+        int weight = 0;
+        for (int id : ids) {
+            weight += grids.getWeight(id);
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the ports to explore for the specified grids: the {@code width} ports with the best
+     * greedy score, in increasing order of score. The ports that have the same outcome in all the
+     * grids are not considered, as they would not tell anything, and neither are the known ports.
+     */
+    private int[] getCandidatePorts(int[] ids) {
+        ScoringStrategy greedy = new ExpectedRemainingStrategy();
+        double[] scores = new double[nPorts];
+        int[] histogram = new int[nPorts + 1];
+        Integer[] ports = new Integer[nPorts];
+        int totalWeight = getWeight(ids);
+        int nCandidates = 0;
+        for (int port = 0; port < nPorts; port++) {
+            if (testPorts.isKnown(port)) {
+                continue;
+            }
+            Arrays.fill(histogram, 0);
+            for (int id : ids) {
+                histogram[grids.getOutcome(id, port) - Propagator.HIT] += grids.getWeight(id);
+            }
+            scores[port] = greedy.score(histogram);
+            if (scores[port] < totalWeight) {
+                ports[nCandidates++] = port;
+            }
+        }
+        // stable sort, the lowest port comes first in case of a tie
+        Arrays.sort(ports, 0, nCandidates, (p1, p2) -> Double.compare(scores[p1], scores[p2]));
+        int[] candidates = new int[Math.min(width, nCandidates)];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = ports[i];
+        }
+        return candidates;
+    }
+
+    /**
+     * Splits the specified grids by outcome of the ray shot from the specified port.
+     */
+    private int[][] partition(int[] ids, int port) {
+        int[] counts = new int[nPorts + 1];
+        for (int id : ids) {
+            counts[grids.getOutcome(id, port) - Propagator.HIT]++;
+        }
+        int[][] buckets = new int[nPorts + 1][];
+        for (int o = 0; o < buckets.length; o++) {
+            buckets[o] = new int[counts[o]];
+        }
+        Arrays.fill(counts, 0);
+        for (int id : ids) {
+            int o = grids.getOutcome(id, port) - Propagator.HIT;
+            buckets[o][counts[o]++] = id;
+        }
+        return buckets;
+    }
+
+    /**
+     * A set of grids to evaluate at a given depth. Its hash is computed once from the ids of the
+     * grids.
+     */
+    private static final class SubProblem {
+
+        private final int[] ids;
+
+        private final int depth;
+
+        private final int hash;
+
+        SubProblem(int[] ids, int depth) {
+            this.ids = ids;
+            this.depth = depth;
+            this.hash = 31 * Arrays.hashCode(ids) + depth;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SubProblem)) {
+                return false;
+            }
+            SubProblem other = (SubProblem) obj;
+            return hash == other.hash && depth == other.depth && Arrays.equals(ids, other.ids);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.hildan.games.blackbox.ai;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * A file-backed store of grids, for when there are too many possible grids to keep them in the
+ * heap.
+ * <p>
+ * Each grid is a fixed-width record made of the {@link BallSet} key of the grid (8 bytes), followed
+ * by its signature (one byte per port). The file is mapped in memory by segments, and the first
+ * {@link #size()} records of the file are the possible grids: filtering rewrites the remaining
+ * records at the beginning of the file, and only reduces the number of records in use.
+ * <p>
+ * The file is never resized while it is mapped, and it is deleted when this store is closed, as
+ * both fail on some systems while a mapping is alive.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class MappedGridStore implements Closeable {
+
+    /**
+     * The number of records per mapped segment.
+     */
+    private static final int SEGMENT_RECORDS = 1 << 20;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final int nPorts;
+
+    private final int recordSize;
+
+    private long size;
+
+    private MappedByteBuffer[] segments;
+
+    /**
+     * Creates a new empty store in the specified file.
+     *
+     * @param file
+     *            The file to store the grids into. It is overwritten if it exists.
+     * @param nPorts
+     *            The number of ports of the grids.
+     * @throws IOException
+     *             if the file could not be created
+     */
+    MappedGridStore(Path file, int nPorts) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.nPorts = nPorts;
+        this.recordSize = Long.BYTES + nPorts;
+        this.segments = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Returns the size in bytes of a record.
+     *
+     * @return the size in bytes of a record.
+     */
+    int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * Writes records at the specified position. This method may be called concurrently for
+     * distinct positions, and the written records are only readable after {@link #setSize(long)}.
+     *
+     * @param index
+     *            The index of the first record to write.
+     * @param records
+     *            The records to write, from the position to the limit of the buffer.
+     * @throws IOException
+     *             if the records could not be written
+     */
+    void write(long index, ByteBuffer records) throws IOException {
+        long position = index * recordSize;
+        while (records.hasRemaining()) {
+            position += channel.write(records, position);
+        }
+    }
+
+    /**
+     * Sets the number of records of this store, and maps them in memory.
+     *
+     * @param size
+     *            The number of records written.
+     * @throws IOException
+     *             if the file could not be mapped
+     */
+    void setSize(long size) throws IOException {
+        this.size = size;
+        int nSegments = (int) ((size + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS);
+        segments = new MappedByteBuffer[nSegments];
+        for (int s = 0; s < nSegments; s++) {
+            long first = (long) s * SEGMENT_RECORDS;
+            long count = Math.min(SEGMENT_RECORDS, size - first);
+            segments[s] = channel.map(MapMode.READ_WRITE, first * recordSize, count * recordSize);
+        }
+    }
+
+    /**
+     * Returns the number of records in this store.
+     *
+     * @return the number of records in this store.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns the {@link BallSet} key of the specified record.
+     *
+     * @param index
+     *            The index of the record.
+     * @return the key of the grid.
+     */
+    long getKey(long index) {
+        return segments[(int) (index / SEGMENT_RECORDS)].getLong((int) (index % SEGMENT_RECORDS) * recordSize);
+    }
+
+    /**
+     * Copies records into the specified arrays.
+     *
+     * @param from
+     *            The index of the first record to copy.
+     * @param count
+     *            The number of records to copy.
+     * @param keys
+     *            The array to store the keys into, from index 0.
+     * @param outcomes
+     *            The columns to store the outcomes of each port into, from index 0.
+     */
+    void read(long from, int count, long[] keys, byte[][] outcomes) {
+        for (int g = 0; g < count; g++) {
+            long index = from + g;
+            ByteBuffer segment = segments[(int) (index / SEGMENT_RECORDS)];
+            int offset = (int) (index % SEGMENT_RECORDS) * recordSize;
+            keys[g] = segment.getLong(offset);
+            for (int port = 0; port < nPorts; port++) {
+                outcomes[port][g] = segment.get(offset + Long.BYTES + port);
+            }
+        }
+    }
+
+    /**
+     * Counts the records by outcome of each port, in a single pass over the file. The segments are
+     * processed concurrently.
+     *
+     * @param histograms
+     *            An array of {@code nPorts} histograms of {@code nPorts + 1} elements to add the
+     *            counts to, indexed as in {@link PossibleGridList#fillHistogram(int, int[])}.
+     */
+    void fillHistograms(int[][] histograms) {
+        IntStream.range(0, segments.length).parallel().forEach(s -> {
+            ByteBuffer segment = segments[s];
+            long first = (long) s * SEGMENT_RECORDS;
+            int end = (int) Math.max(0, Math.min(SEGMENT_RECORDS, size - first)) * recordSize;
+            int[][] local = new int[nPorts][nPorts + 1];
+            for (int offset = 0; offset < end; offset += recordSize) {
+                for (int port = 0; port < nPorts; port++) {
+                    local[port][segment.get(offset + Long.BYTES + port) - Propagator.HIT]++;
+                }
+            }
+            synchronized (histograms) {
+                for (int port = 0; port < nPorts; port++) {
+                    for (int o = 0; o <= nPorts; o++) {
+                        histograms[port][o] += local[port][o];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the records that do not show the specified outcome when shooting from the specified
+     * port. The remaining records are moved to the beginning of the file, in the same order. The
+     * file keeps its length and its mappings, the records after the remaining ones are ignored.
+     *
+     * @param port
+     *            The port the ray is shot from.
+     * @param outcome
+     *            The port the ray came out from, or {@link Propagator#HIT}.
+     */
+    void retain(int port, int outcome) {
+        long kept = 0;
+        for (long index = 0; index < size; index++) {
+            ByteBuffer source = segments[(int) (index / SEGMENT_RECORDS)];
+            int sourceOffset = (int) (index % SEGMENT_RECORDS) * recordSize;
+            if (source.get(sourceOffset + Long.BYTES + port) != outcome) {
+                continue;
+            }
+            if (kept < index) {
+                // the written records are always behind the read ones
+                ByteBuffer target = segments[(int) (kept / SEGMENT_RECORDS)];
+                int targetOffset = (int) (kept % SEGMENT_RECORDS) * recordSize;
+                for (int b = 0; b < recordSize; b++) {
+                    target.put(targetOffset + b, source.get(sourceOffset + b));
+                }
+            }
+            kept++;
+        }
+        size = kept;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = new MappedByteBuffer[0];
+        size = 0;
+        channel.close();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // the mappings are only released when they are garbage collected
+            file.toFile().deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.hildan.games.blackbox.ai;
+
+/**
+ * Scores a port with the number of grids left in the worst case, which is the largest bucket of
+ * its histogram.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class MinimaxStrategy implements ScoringStrategy {
+
+    @Override
+    public double score(int[] histogram) {
+        int max = 0;
+        for (int n : histogram) {
+            max = Math.max(max, n);
+        }
+        return max;
+    }
+}
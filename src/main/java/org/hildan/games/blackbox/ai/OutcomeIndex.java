@@ -0,0 +1,136 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * An inverted index from each (port, outcome) pair to the ids of the grids showing this outcome
+ * when shooting from this port.
+ * <p>
+ * The grids of each pair are stored either as a bitmap of all grid ids, or as a sorted array of ids
+ * when they are too sparse for a bitmap to be worth it. This way, restricting a bitmap of grids to
+ * one outcome is a word-by-word AND in the dense case, and proportional to the number of matching
+ * grids in the sparse case.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class OutcomeIndex {
+
+    /**
+     * An array of ids takes 32 bits per grid, a bitmap 1 bit per possible grid.
+     */
+    private static final int SPARSE_RATIO = 32;
+
+    private final int nWords;
+
+    /**
+     * The dense containers, indexed by port and then by outcome (shifted by {@link Propagator#HIT}
+     * ), {@code null} when the pair is stored as an array of ids.
+     */
+    private final long[][][] bitmaps;
+
+    /**
+     * The sparse containers, indexed by port and then by outcome (shifted by
+     * {@link Propagator#HIT}), {@code null} when the pair is stored as a bitmap.
+     */
+    private final int[][][] ids;
+
+    /**
+     * Creates the index of the specified outcomes. The ports are indexed concurrently.
+     *
+     * @param outcomes
+     *            The outcomes of the grids, in one column per port indexed by grid.
+     * @param nGrids
+     *            The number of grids.
+     */
+    OutcomeIndex(byte[][] outcomes, int nGrids) {
+        int nPorts = outcomes.length;
+        this.nWords = getNbWords(nGrids);
+        this.bitmaps = new long[nPorts][][];
+        this.ids = new int[nPorts][][];
+        IntStream.range(0, nPorts).parallel().forEach(port -> indexPort(port, outcomes[port], nGrids, nPorts));
+    }
+
+    private void indexPort(int port, byte[] column, int nGrids, int nPorts) {
+        int nOutcomes = nPorts - Propagator.HIT;
+        int[] counts = new int[nOutcomes];
+        for (int g = 0; g < nGrids; g++) {
+            counts[column[g] - Propagator.HIT]++;
+        }
+        long[][] portBitmaps = new long[nOutcomes][];
+        int[][] portIds = new int[nOutcomes][];
+        for (int o = 0; o < nOutcomes; o++) {
+            if (counts[o] * SPARSE_RATIO < nGrids) {
+                portIds[o] = new int[counts[o]];
+            } else {
+                portBitmaps[o] = new long[nWords];
+            }
+        }
+        Arrays.fill(counts, 0);
+        for (int g = 0; g < nGrids; g++) {
+            int o = column[g] - Propagator.HIT;
+            if (portIds[o] != null) {
+                portIds[o][counts[o]++] = g;
+            } else {
+                portBitmaps[o][g >>> 6] |= 1L << g;
+            }
+        }
+        bitmaps[port] = portBitmaps;
+        ids[port] = portIds;
+    }
+
+    /**
+     * Restricts the specified grids to the ones showing the specified outcome when shooting from
+     * the specified port.
+     *
+     * @param port
+     *            The port the ray is shot from.
+     * @param outcome
+     *            The port the ray came out from, or {@link Propagator#HIT}.
+     * @param grids
+     *            The bitmap of grid ids to restrict, updated in place.
+     */
+    void retain(int port, int outcome, long[] grids) {
+        int o = outcome - Propagator.HIT;
+        long[] bitmap = bitmaps[port][o];
+        if (bitmap != null) {
+            for (int w = 0; w < nWords; w++) {
+                grids[w] &= bitmap[w];
+            }
+            return;
+        }
+        long[] retained = new long[nWords];
+        for (int g : ids[port][o]) {
+            retained[g >>> 6] |= grids[g >>> 6] & 1L << g;
+        }
+        System.arraycopy(retained, 0, grids, 0, nWords);
+    }
+
+    /**
+     * Returns the number of words of a bitmap of the specified number of grids.
+     *
+     * @param nGrids
+     *            The number of grids.
+     * @return the number of {@code long}s needed to hold one bit per grid.
+     */
+    static int getNbWords(int nGrids) {
+        return (nGrids + 63) >>> 6;
+    }
+
+    /**
+     * Returns the number of grids in the specified bitmap.
+     *
+     * @param grids
+     *            The bitmap of grid ids.
+     * @return the number of bits set in {@code grids}.
+     */
+    static int cardinality(long[] grids) {
+        int count = 0;
+        for (long w : grids) {
+            count += Long.bitCount(w);
+        }
+        return count;
+    }
+}
@@ -1,95 +1,862 @@
 package org.hildan.games.blackbox.ai;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 import org.hildan.games.blackbox.model.Ball;
-import org.hildan.games.blackbox.model.BallList;
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.Grid;
 import org.hildan.games.blackbox.model.ports.Ports;
-import org.hildan.utils.console.drawing.progress.AbstractProgressBar;
-import org.hildan.utils.console.drawing.progress.OneTimeProgressBar;
+import org.hildan.games.blackbox.model.propagation.IncrementalPropagator;
+import org.hildan.games.blackbox.model.propagation.Propagator;
 
 /**
  * A list that contains all possible grids. This class provides operations to filter those grids
  * according to one port's state, which is helpful for solving the BlackBox.
+ * <p>
+ * The grids are not stored as {@link Grid} objects. Each grid is only remembered by the key of its
+ * {@link BallSet} and by its signature, which is the outcome of the ray shot from each port, stored
+ * as one byte per port in a flat array.
+ * <p>
+ * As long as no port is known, the possible grids are invariant under the {@link Symmetry}s of the
+ * square. Only one canonical grid per orbit is stored then, with the size of its orbit. The first
+ * known port breaks the symmetry: the orbits are then expanded into the grids that are consistent
+ * with this port. The expansion for each first observation is computed once, and shared by all the
+ * lists copied from the same universe.
+ * <p>
+ * Once expanded, the grids that have the same signature are grouped into a class, as no shot can
+ * tell them apart. The signature is only stored once per class, with the keys of all its grids, so
+ * that scoring and filtering go through the classes rather than the grids. The histograms count
+ * each class as many times as it has grids, which keeps the outcome probabilities right.
+ * <p>
+ * Filtering does not move the classes around: the remaining classes are tracked in a bitmap of
+ * class ids, which is restricted with an {@link OutcomeIndex} each time the state of a port is
+ * known.
+ * <p>
+ * When there are too many possible grids for the heap, they can be stored in a
+ * {@link MappedGridStore} instead, without symmetry reduction. They are then loaded in the heap as
+ * soon as there are few enough of them.
  *
  * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
  */
-class PossibleGridList extends LinkedList<Grid> {
+class PossibleGridList {
+
+    /**
+     * The number of combinations (or stored grids) processed by each parallel task.
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * The file-backed grids are loaded in the heap as soon as there are at most this many.
+     */
+    private static final int MAX_HEAP_GRIDS = 1 << 22;
+
+    private final BoardGeometry geometry;
+
+    private final int nPorts;
+
+    private final int nBalls;
+
+    private final Symmetry symmetry;
+
+    private final SolverListener listener;
+
+    /**
+     * The number of stored grids, or of stored classes once expanded.
+     */
+    private int nGrids;
+
+    /**
+     * The {@link BallSet} key of each grid. Once expanded, the grids of each class are contiguous.
+     */
+    private long[] keys;
+
+    /**
+     * The outcomes of the rays shot from each port, in one column per port indexed by grid (or by
+     * class once expanded), so that scoring or filtering a port is a linear scan of its column.
+     */
+    private byte[][] outcomes;
+
+    /**
+     * The position in {@link #keys} of the first grid of each class, followed by the total number
+     * of grids, only available once expanded.
+     */
+    private int[] classStarts;
+
+    /**
+     * The size of the orbit of each stored canonical grid, or {@code null} once the orbits have
+     * been expanded.
+     */
+    private byte[] orbitSizes;
+
+    /**
+     * The expanded lists for each first observation, shared by all the copies of the same universe,
+     * only used until expanded.
+     */
+    private final ConcurrentMap<Integer, PossibleGridList> expansions;
+
+    /**
+     * The index of the grids by outcome of each port, only available once expanded.
+     */
+    private OutcomeIndex index;
+
+    /**
+     * The bitmap of the ids of the classes that are still possible, only available once expanded.
+     */
+    private long[] survivors;
+
+    /**
+     * The file the grids are stored in, or {@code null} if they are in the heap.
+     */
+    private MappedGridStore store;
+
+    /**
+     * The histograms of all the ports for the file-backed grids, computed in a single pass over the
+     * file when first needed, or {@code null} if not computed yet.
+     */
+    private int[][] storeHistograms;
+
+    /**
+     * The number of possible grids, including the ones that are only represented by their orbit.
+     */
+    private int size;
+
+    /**
+     * The number of possible classes once expanded, the number of possible grids before.
+     */
+    private int nClasses;
 
     /**
      * Creates a new {@code PossibleGridList} containing all possible grids for the specified number
      * of balls.
      *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden {@link Ball}s in the {@link Grid}s.
+     * @param listener
+     *            The listener to report the progress to.
+     */
+    PossibleGridList(BoardGeometry geometry, int nBalls, SolverListener listener) {
+        this.geometry = geometry;
+        this.nBalls = nBalls;
+        this.listener = listener;
+        this.expansions = new ConcurrentHashMap<>();
+        Combinations combinations = new Combinations(geometry.getNbCells(), nBalls);
+        nPorts = geometry.getNbPorts();
+        if (combinations.count() > Integer.MAX_VALUE / nPorts) {
+            throw new IllegalArgumentException("Too many possible grids: " + combinations.count());
+        }
+        final int total = (int) combinations.count();
+        symmetry = new Symmetry(geometry);
+
+        Progress counted = new Progress(total);
+        listener.phaseStarted(SolverPhase.SYMMETRY, counted);
+        int nChunks = (total + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int[] offsets = new int[nChunks + 1];
+        forEachChunk(nChunks, chunk -> {
+            offsets[chunk + 1] = generateChunk(combinations, chunk, -1);
+            counted.advance(getChunkLength(chunk, total));
+        });
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            offsets[chunk + 1] += offsets[chunk];
+        }
+        nGrids = offsets[nChunks];
+        listener.phaseEnded(SolverPhase.SYMMETRY);
+
+        keys = new long[nGrids];
+        outcomes = new byte[nPorts][nGrids];
+        orbitSizes = new byte[nGrids];
+
+        Progress generated = new Progress(nGrids);
+        listener.phaseStarted(SolverPhase.GENERATION, generated);
+        forEachChunk(nChunks, chunk -> {
+            generateChunk(combinations, chunk, offsets[chunk]);
+            generated.advance(offsets[chunk + 1] - offsets[chunk]);
+        });
+        size = total;
+        nClasses = total;
+        listener.phaseEnded(SolverPhase.GENERATION);
+    }
+
+    /**
+     * Creates a new {@code PossibleGridList} containing only the specified grids.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden {@link Ball}s in the {@link Grid}s.
+     * @param keys
+     *            The {@link BallSet} keys of the grids.
+     * @param listener
+     *            The listener to report the progress to.
+     */
+    PossibleGridList(BoardGeometry geometry, int nBalls, long[] keys, SolverListener listener) {
+        this.geometry = geometry;
+        this.nBalls = nBalls;
+        this.listener = listener;
+        this.expansions = new ConcurrentHashMap<>();
+        this.nPorts = geometry.getNbPorts();
+        this.symmetry = new Symmetry(geometry);
+        this.nGrids = keys.length;
+        this.keys = keys;
+        this.outcomes = new byte[nPorts][nGrids];
+        forEachChunk((nGrids + CHUNK_SIZE - 1) / CHUNK_SIZE, this::traceChunk);
+        initIndex();
+    }
+
+    /**
+     * Creates a new {@code PossibleGridList} containing all possible grids for the specified number
+     * of balls, stored in the specified file rather than in the heap.
+     *
+     * @param geometry
+     *            The geometry of the board.
      * @param nBalls
      *            The number of hidden {@link Ball}s in the {@link Grid}s.
+     * @param file
+     *            The file to store the grids into. It is overwritten if it exists, and deleted once
+     *            the grids are loaded in the heap.
+     * @param listener
+     *            The listener to report the progress to.
      */
-    PossibleGridList(int nBalls) {
-        super();
-        System.out.print("Creating all possible balls...");
-        BallList allBalls = BallList.getAllBalls();
-        System.out.println(" Done.");
-
-        // create all possible sets of nBalls balls
-        System.out.print("Generating " + nBalls + "-ball lists...");
-        LinkedList<BallList> lists = generateBallsLists(allBalls, new BallList(), nBalls);
-        final int total = lists.size();
-        System.out.println(" Done.");
-        System.out.println("There are " + lists.size() + " possible grids.");
-
-        System.out.println("Generating all possible grids...");
-        AbstractProgressBar progress;
-        progress = new OneTimeProgressBar(total, 60);
-        progress.begin();
-        for (BallList list : lists) {
-            Grid grid = new Grid(list);
-            add(grid);
-            grid.shootAll();
-            progress.printProgress(size());
-        }
-        progress.end();
-        System.out.println();
-    }
-
-    /**
-     * Generates all possible lists of {@code nb} {@link Ball}s. The balls are chosen among the
-     * specified {@code set}, but can't be chosen if they are in the {@code exceptions} set.
-     *
-     * @param set
-     *            The set of {@link Ball}s to choose from.
-     * @param exceptions
-     *            The {@code Ball}s that can't be chosen from {@code set}.
-     * @param nb
-     *            The number of {@code Ball}s in each list.
-     * @return A list of all possible lists of {@code Ball}s with the specified parameters.
-     */
-    private static LinkedList<BallList> generateBallsLists(BallList set, BallList exceptions, int nb) {
-        LinkedList<BallList> results = new LinkedList<>();
-        // adds an empty list if the size is 0
-        if (nb == 0) {
-            results.add(new BallList());
-            return results;
-        }
-        BallList subexceptions = new BallList();
-        subexceptions.addAll(exceptions);
-        // chooses the first ball
-        for (Ball b : set) {
-            // skip exceptions
-            if (exceptions.contains(b)) {
+    PossibleGridList(BoardGeometry geometry, int nBalls, Path file, SolverListener listener) {
+        this.geometry = geometry;
+        this.nBalls = nBalls;
+        this.listener = listener;
+        this.expansions = new ConcurrentHashMap<>();
+        this.nPorts = geometry.getNbPorts();
+        this.symmetry = new Symmetry(geometry);
+        Combinations combinations = new Combinations(geometry.getNbCells(), nBalls);
+        if (combinations.count() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many possible grids: " + combinations.count());
+        }
+        size = (int) combinations.count();
+        int nChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Progress generated = new Progress(size);
+        listener.phaseStarted(SolverPhase.GENERATION, generated);
+        try {
+            store = new MappedGridStore(file, nPorts);
+            forEachChunk(nChunks, chunk -> {
+                writeChunk(combinations, chunk);
+                generated.advance(getChunkLength(chunk, size));
+            });
+            store.setSize(size);
+            nClasses = size;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        listener.phaseEnded(SolverPhase.GENERATION);
+    }
+
+    /**
+     * Creates a new {@code PossibleGridList} containing the same grids as the specified list. The
+     * arrays of the specified list are shared and never modified by either list: filtering only
+     * restricts the bitmap of survivors, which is copied, and the expansion of the orbits at the
+     * first observation is shared as well. This allows to generate the possible grids once for many
+     * games.
+     *
+     * @param universe
+     *            The list to copy, which must be in the heap.
+     * @param listener
+     *            The listener to report the progress to.
+     */
+    PossibleGridList(PossibleGridList universe, SolverListener listener) {
+        if (universe.store != null) {
+            throw new IllegalArgumentException("Cannot share file-backed grids");
+        }
+        this.geometry = universe.geometry;
+        this.nBalls = universe.nBalls;
+        this.listener = listener;
+        this.nPorts = universe.nPorts;
+        this.symmetry = universe.symmetry;
+        this.expansions = universe.expansions;
+        share(universe);
+    }
+
+    /**
+     * Makes this list contain the same grids as the specified list, sharing its arrays.
+     *
+     * @param source
+     *            The list to share the grids of.
+     */
+    private void share(PossibleGridList source) {
+        this.nGrids = source.nGrids;
+        this.keys = source.keys;
+        this.outcomes = source.outcomes;
+        this.classStarts = source.classStarts;
+        this.orbitSizes = source.orbitSizes;
+        this.index = source.index;
+        this.survivors = source.survivors == null ? null : source.survivors.clone();
+        this.size = source.size;
+        this.nClasses = source.nClasses;
+    }
+
+    /**
+     * Traces the grids of a chunk of combination ranks, and writes them to the file.
+     *
+     * @param combinations
+     *            The ball combinations to go through.
+     * @param chunk
+     *            The chunk of ranks to go through.
+     */
+    private void writeChunk(Combinations combinations, int chunk) {
+        long from = (long) chunk * CHUNK_SIZE;
+        long to = Math.min(from + CHUNK_SIZE, combinations.count());
+        ByteBuffer records = ByteBuffer.allocate((int) (to - from) * store.getRecordSize());
+        int[] cells = new int[nBalls];
+        int[] previous = new int[nBalls];
+        combinations.unrankRevolvingDoor(from, cells);
+        IncrementalPropagator propagator = new IncrementalPropagator(geometry);
+        for (int cell : cells) {
+            propagator.addBall(cell);
+        }
+        for (long rank = from; rank < to; rank++) {
+            if (rank > from) {
+                System.arraycopy(cells, 0, previous, 0, nBalls);
+                combinations.nextRevolvingDoor(cells);
+                moveBall(previous, cells, propagator);
+            }
+            records.putLong(BallSet.toKey(cells));
+            for (int outcome : propagator.getOutcomes()) {
+                records.put((byte) outcome);
+            }
+        }
+        records.flip();
+        try {
+            store.write(from, records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads the file-backed grids in the heap, and deletes the file.
+     */
+    private void loadStore() {
+        nGrids = (int) store.size();
+        keys = new long[nGrids];
+        outcomes = new byte[nPorts][nGrids];
+        store.read(0, nGrids, keys, outcomes);
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        store = null;
+        storeHistograms = null;
+        initIndex();
+    }
+
+    /**
+     * Traces the signatures of a chunk of stored grids from their keys.
+     *
+     * @param chunk
+     *            The chunk of grids to trace.
+     */
+    private void traceChunk(int chunk) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(from + CHUNK_SIZE, nGrids);
+        int[] cells = new int[nBalls];
+        BallSet balls = new BallSet(geometry);
+        Propagator propagator = new Propagator(balls);
+        for (int g = from; g < to; g++) {
+            int n = BallSet.getCells(keys[g], cells);
+            balls.clear();
+            for (int k = 0; k < n; k++) {
+                balls.addCell(cells[k]);
+            }
+            propagator.setBalls(balls);
+            for (int port = 0; port < nPorts; port++) {
+                outcomes[port][g] = (byte) propagator.propagateRay(port);
+            }
+        }
+    }
+
+    /**
+     * Groups the stored grids into classes and indexes the classes, which all become possible.
+     */
+    private void initIndex() {
+        size = nGrids;
+        groupClasses();
+        index = new OutcomeIndex(outcomes, nGrids);
+        survivors = new long[OutcomeIndex.getNbWords(nGrids)];
+        for (int c = 0; c < nGrids; c++) {
+            survivors[c >>> 6] |= 1L << c;
+        }
+        nClasses = nGrids;
+    }
+
+    /**
+     * Groups the stored grids that have the same signature into classes. The grids are sorted by
+     * hash of their signature, so that only the grids of equal hash have to be compared. The classes
+     * are numbered in the order of their first grid, and the grids keep their order within a class.
+     */
+    private void groupClasses() {
+        int[] hashes = new int[nGrids];
+        forEachChunk((nGrids + CHUNK_SIZE - 1) / CHUNK_SIZE, chunk -> {
+            int from = chunk * CHUNK_SIZE;
+            int to = Math.min(from + CHUNK_SIZE, nGrids);
+            for (byte[] column : outcomes) {
+                for (int g = from; g < to; g++) {
+                    hashes[g] = 31 * hashes[g] + column[g];
+                }
+            }
+        });
+        long[] sorted = new long[nGrids];
+        for (int g = 0; g < nGrids; g++) {
+            sorted[g] = (long) hashes[g] << 32 | g;
+        }
+        Arrays.parallelSort(sorted);
+
+        // the first grid of the class of each grid, found among the previous grids of equal hash
+        int[] firstGrids = new int[nGrids];
+        for (int i = 0, j; i < nGrids; i = j) {
+            long hash = sorted[i] >> 32;
+            for (j = i; j < nGrids && sorted[j] >> 32 == hash; j++) {
+                int g = (int) sorted[j];
+                firstGrids[g] = g;
+                for (int k = i; k < j; k++) {
+                    int first = (int) sorted[k];
+                    if (firstGrids[first] == first && haveSameSignature(g, first)) {
+                        firstGrids[g] = first;
+                        break;
+                    }
+                }
+            }
+        }
+
+        // the hashes are not needed anymore, their array is reused
+        int[] classIds = hashes;
+        int nGroups = 0;
+        for (int g = 0; g < nGrids; g++) {
+            classIds[g] = firstGrids[g] == g ? nGroups++ : classIds[firstGrids[g]];
+        }
+        classStarts = new int[nGroups + 1];
+        for (int g = 0; g < nGrids; g++) {
+            classStarts[classIds[g] + 1]++;
+        }
+        for (int c = 0; c < nGroups; c++) {
+            classStarts[c + 1] += classStarts[c];
+        }
+        if (nGroups == nGrids) {
+            // all signatures are different, nothing to move
+            return;
+        }
+        long[] groupedKeys = new long[nGrids];
+        int[] positions = Arrays.copyOf(classStarts, nGroups);
+        byte[][] classOutcomes = new byte[nPorts][nGroups];
+        for (int g = 0; g < nGrids; g++) {
+            int c = classIds[g];
+            groupedKeys[positions[c]++] = keys[g];
+            if (firstGrids[g] == g) {
+                for (int port = 0; port < nPorts; port++) {
+                    classOutcomes[port][c] = outcomes[port][g];
+                }
+            }
+        }
+        keys = groupedKeys;
+        outcomes = classOutcomes;
+        nGrids = nGroups;
+    }
+
+    private boolean haveSameSignature(int g1, int g2) {
+        for (byte[] column : outcomes) {
+            if (column[g1] != column[g2]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Goes through the combinations of a chunk of ranks, and looks for the canonical grids, which
+     * are the ones with the lowest key of their orbit.
+     *
+     * @param combinations
+     *            The ball combinations to go through.
+     * @param chunk
+     *            The chunk of ranks to go through.
+     * @param offset
+     *            The position to store the first canonical grid of the chunk at, or -1 to only
+     *            count them.
+     * @return the number of canonical grids in the chunk.
+     */
+    private int generateChunk(Combinations combinations, int chunk, int offset) {
+        long from = (long) chunk * CHUNK_SIZE;
+        long to = Math.min(from + CHUNK_SIZE, combinations.count());
+        int[] cells = new int[nBalls];
+        int[] previous = new int[nBalls];
+        int[] buffer = new int[nBalls];
+        combinations.unrankRevolvingDoor(from, cells);
+        IncrementalPropagator propagator = offset < 0 ? null : new IncrementalPropagator(geometry);
+        if (propagator != null) {
+            for (int cell : cells) {
+                propagator.addBall(cell);
+            }
+        }
+        int count = 0;
+        for (long rank = from; rank < to; rank++) {
+            if (rank > from) {
+                System.arraycopy(cells, 0, previous, 0, nBalls);
+                combinations.nextRevolvingDoor(cells);
+                if (propagator != null) {
+                    moveBall(previous, cells, propagator);
+                }
+            }
+            long key = BallSet.toKey(cells);
+            int stabilizerSize = 0;
+            boolean canonical = true;
+            for (int g = 0; g < Symmetry.COUNT && canonical; g++) {
+                long image = symmetry.getKey(g, cells, buffer);
+                canonical = image >= key;
+                if (image == key) {
+                    stabilizerSize++;
+                }
+            }
+            if (!canonical) {
                 continue;
             }
-            // not to choose b in the rest of the list
-            subexceptions.add(b);
-            // recursive call to build the rest of the list
-            LinkedList<BallList> sublists = generateBallsLists(set, subexceptions, nb - 1);
-            for (BallList sublist : sublists) {
-                sublist.addFirst(b);
-                results.add(sublist);
+            if (offset >= 0) {
+                int g = offset + count;
+                keys[g] = key;
+                orbitSizes[g] = (byte) (Symmetry.COUNT / stabilizerSize);
+                int[] gridOutcomes = propagator.getOutcomes();
+                for (int port = 0; port < nPorts; port++) {
+                    outcomes[port][g] = (byte) gridOutcomes[port];
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the ball that differs between two consecutive combinations in revolving-door order.
+     *
+     * @param previous
+     *            The previous combination.
+     * @param cells
+     *            The current combination, which differs from {@code previous} by one element.
+     * @param propagator
+     *            The propagator to move the ball in.
+     */
+    private static void moveBall(int[] previous, int[] cells, IncrementalPropagator propagator) {
+        int i = 0;
+        int j = 0;
+        while (i < previous.length || j < cells.length) {
+            if (j == cells.length || i < previous.length && previous[i] < cells[j]) {
+                propagator.removeBall(previous[i++]);
+            } else if (i == previous.length || cells[j] < previous[i]) {
+                propagator.addBall(cells[j++]);
+            } else {
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Expands the orbits of the stored canonical grids into the grids that show the specified
+     * outcome when shooting from the specified port.
+     *
+     * @param port
+     *            The port the ray is shot from.
+     * @param outcome
+     *            The port the ray came out from, or {@link Propagator#HIT}.
+     */
+    private void expand(int port, int outcome) {
+        int nChunks = (nGrids + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int[] offsets = new int[nChunks + 1];
+        forEachChunk(nChunks, chunk -> offsets[chunk + 1] = expandChunk(chunk, port, outcome, null, null, -1));
+        for (int chunk = 0; chunk < nChunks; chunk++) {
+            offsets[chunk + 1] += offsets[chunk];
+        }
+        int nExpanded = offsets[nChunks];
+        long[] expandedKeys = new long[nExpanded];
+        byte[][] expandedOutcomes = new byte[nPorts][nExpanded];
+        forEachChunk(nChunks,
+                chunk -> expandChunk(chunk, port, outcome, expandedKeys, expandedOutcomes, offsets[chunk]));
+        nGrids = nExpanded;
+        keys = expandedKeys;
+        outcomes = expandedOutcomes;
+        orbitSizes = null;
+        initIndex();
+    }
+
+    /**
+     * Expands the orbits of a chunk of stored canonical grids.
+     *
+     * @param chunk
+     *            The chunk of canonical grids to expand.
+     * @param port
+     *            The port the ray is shot from.
+     * @param outcome
+     *            The outcome the expanded grids must show.
+     * @param expandedKeys
+     *            The array to store the keys of the expanded grids into.
+     * @param expandedOutcomes
+     *            The array to store the signatures of the expanded grids into.
+     * @param offset
+     *            The position to store the first expanded grid of the chunk at, or -1 to only count
+     *            them.
+     * @return the number of expanded grids for this chunk.
+     */
+    private int expandChunk(int chunk, int port, int outcome, long[] expandedKeys, byte[][] expandedOutcomes,
+            int offset) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(from + CHUNK_SIZE, nGrids);
+        int[] cells = new int[nBalls];
+        int[] buffer = new int[nBalls];
+        long[] images = new long[Symmetry.COUNT];
+        int count = 0;
+        for (int r = from; r < to; r++) {
+            BallSet.getCells(keys[r], cells);
+            int nImages = 0;
+            for (int g = 0; g < Symmetry.COUNT; g++) {
+                int source = symmetry.getPort(symmetry.inverse(g), port);
+                if (symmetry.getOutcome(g, outcomes[source][r]) != outcome) {
+                    continue;
+                }
+                long image = symmetry.getKey(g, cells, buffer);
+                if (contains(images, nImages, image)) {
+                    // same grid as for another symmetry of the stabilizer
+                    continue;
+                }
+                images[nImages++] = image;
+                if (offset >= 0) {
+                    int e = offset + count;
+                    expandedKeys[e] = image;
+                    for (int q = 0; q < nPorts; q++) {
+                        int o = symmetry.getOutcome(g, outcomes[q][r]);
+                        expandedOutcomes[symmetry.getPort(g, q)][e] = (byte) o;
+                    }
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of elements of the specified chunk.
+     *
+     * @param chunk
+     *            The chunk.
+     * @param total
+     *            The total number of elements of all the chunks.
+     * @return the number of elements of the chunk, {@link #CHUNK_SIZE} except for the last one.
+     */
+    private static int getChunkLength(int chunk, int total) {
+        return Math.min(CHUNK_SIZE, total - chunk * CHUNK_SIZE);
+    }
+
+    private static boolean contains(long[] array, int length, long value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return true;
             }
-            // we don't put b back here because
-            // all lists containing it have already been counted
         }
-        return results;
+        return false;
+    }
+
+    /**
+     * Processes the specified number of chunks with fork-join tasks.
+     *
+     * @param nChunks
+     *            The number of chunks.
+     * @param action
+     *            The action to perform on each chunk.
+     */
+    private static void forEachChunk(int nChunks, IntConsumer action) {
+        ForkJoinPool.commonPool().invoke(new ChunkTask(0, nChunks, action));
+    }
+
+    /**
+     * A task processing a range of chunks. The range is split in halves until a single chunk is
+     * left. The chunks are processed independently, and each of them writes into its own part of
+     * the arrays, so that the result is the same whatever the number of threads.
+     */
+    private static class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        ChunkTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(from, middle, action), new ChunkTask(middle, to, action));
+            } else if (to > from) {
+                action.accept(from);
+            }
+        }
+    }
+
+    /**
+     * Returns the geometry of the board of the grids.
+     *
+     * @return the geometry of the board.
+     */
+    BoardGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Returns the number of grids in this list.
+     *
+     * @return the number of grids in this list.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of classes of grids in this list. The grids of a class show the same
+     * outcome from every port, so that no shot can tell them apart. Until the list is
+     * {@link #isExpanded() expanded}, the classes are not known and this is the number of grids.
+     *
+     * @return the number of classes of grids in this list, or an upper bound.
+     */
+    int getNbClasses() {
+        return nClasses;
+    }
+
+    /**
+     * Returns the lowest port that has the same score as the specified port for any decision. As
+     * long as no port is known, this is the lowest port of its orbit under the {@link Symmetry}s,
+     * and afterwards the port itself.
+     *
+     * @param port
+     *            The port to get the equivalent of.
+     * @return the lowest port equivalent to {@code port}.
+     */
+    int getEquivalentPort(int port) {
+        return orbitSizes == null ? port : symmetry.getOrbitRepresentative(port);
+    }
+
+    /**
+     * Returns whether the grids are stored one by one in the heap. Before the first observation,
+     * only one grid per orbit under the {@link Symmetry}s is stored.
+     *
+     * @return {@code true} if the ids of the possible grids are available.
+     */
+    boolean isExpanded() {
+        return orbitSizes == null && store == null;
+    }
+
+    /**
+     * Returns the ids of the possible classes of grids, in increasing order. This list must be
+     * {@link #isExpanded() expanded}.
+     *
+     * @return the ids of the possible classes.
+     */
+    int[] getClassIds() {
+        int[] ids = new int[nClasses];
+        int n = 0;
+        for (int w = 0; w < survivors.length; w++) {
+            for (long word = survivors[w]; word != 0; word &= word - 1) {
+                ids[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the outcome of the ray shot from the specified port in the grids of the class with the
+     * specified id. This list must be {@link #isExpanded() expanded}.
+     *
+     * @param id
+     *            The id of the class, as returned by {@link #getClassIds()}.
+     * @param port
+     *            The port to shoot from.
+     * @return the number of the port the ray comes out from, or {@link Propagator#HIT}.
+     */
+    int getOutcome(int id, int port) {
+        return outcomes[port][id];
+    }
+
+    /**
+     * Returns the number of grids of the class with the specified id. This list must be
+     * {@link #isExpanded() expanded}.
+     *
+     * @param id
+     *            The id of the class, as returned by {@link #getClassIds()}.
+     * @return the number of grids of the class.
+     */
+    int getWeight(int id) {
+        return classStarts[id + 1] - classStarts[id];
+    }
+
+    /**
+     * Returns the grid at the specified position in this list. The returned {@link Grid} is
+     * rebuilt from the stored balls, and all its ports are shot.
+     *
+     * @param index
+     *            The position of the grid in this list.
+     * @return a new {@link Grid} with the balls of the specified grid.
+     */
+    Grid getGrid(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Grid grid = new Grid(BallSet.fromKey(geometry, getKey(index)));
+        grid.shootAll();
+        return grid;
+    }
+
+    private long getKey(int index) {
+        int remaining = index;
+        if (store != null) {
+            return store.getKey(index);
+        } else if (orbitSizes != null) {
+            int[] cells = new int[nBalls];
+            int[] buffer = new int[nBalls];
+            long[] images = new long[Symmetry.COUNT];
+            for (int r = 0; r < nGrids; r++) {
+                if (remaining >= orbitSizes[r]) {
+                    remaining -= orbitSizes[r];
+                    continue;
+                }
+                BallSet.getCells(keys[r], cells);
+                int nImages = 0;
+                for (int g = 0; g < Symmetry.COUNT; g++) {
+                    long image = symmetry.getKey(g, cells, buffer);
+                    if (!contains(images, nImages, image)) {
+                        images[nImages++] = image;
+                    }
+                }
+                return images[remaining];
+            }
+        } else {
+            for (int w = 0; w < survivors.length; w++) {
+                for (long word = survivors[w]; word != 0; word &= word - 1) {
+                    int c = (w << 6) + Long.numberOfTrailingZeros(word);
+                    if (remaining < getWeight(c)) {
+                        return keys[classStarts[c] + remaining];
+                    }
+                    remaining -= getWeight(c);
+                }
+            }
+        }
+        throw new IllegalStateException("Inconsistent number of remaining grids");
     }
 
     /**
@@ -101,30 +868,117 @@ class PossibleGridList extends LinkedList<Grid> {
      *            The {@link Ports} list to get {@code port}'s state from.
      */
     void removeInconsistentGrids(int port, Ports compared) {
-        System.out.print("Removing inconsistent grids...");
-        LinkedList<Grid> toKeep = getConsistentGrids(port, compared);
-        retainAll(toKeep);
-        System.out.println("Done.");
+        listener.phaseStarted(SolverPhase.FILTERING, new Progress(0));
+        int outcome = compared.getOutcome(port);
+        if (store != null) {
+            store.retain(port, outcome);
+            size = (int) store.size();
+            nClasses = size;
+            storeHistograms = null;
+            if (size <= MAX_HEAP_GRIDS) {
+                loadStore();
+            }
+        } else if (orbitSizes != null) {
+            // the first observation, which may have been expanded already for another copy
+            share(expansions.computeIfAbsent(port * (nPorts + 1) + outcome - Propagator.HIT, key -> {
+                PossibleGridList expansion = new PossibleGridList(this, SolverListener.NONE);
+                expansion.expand(port, outcome);
+                return expansion;
+            }));
+        } else {
+            index.retain(port, outcome, survivors);
+            nClasses = OutcomeIndex.cardinality(survivors);
+            size = countGrids();
+        }
+        listener.phaseEnded(SolverPhase.FILTERING);
     }
 
     /**
-     * Returns a {@link LinkedList} containing all the possible grids that are consistent with the
-     * state of the specified port.
+     * Counts the grids of the remaining classes.
+     */
+    private int countGrids() {
+        int count = 0;
+        for (int w = 0; w < survivors.length; w++) {
+            for (long word = survivors[w]; word != 0; word &= word - 1) {
+                count += getWeight((w << 6) + Long.numberOfTrailingZeros(word));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the remaining grids of this list by outcome of the ray shot from the specified port,
+     * in a single pass over the remaining classes.
      *
      * @param port
-     *            The port to check the state of.
-     * @param compared
-     *            The {@link Ports} list to get {@code port}'s state from.
-     * @return a new {@link LinkedList} containing all the possible grids that are consistent with
-     *         the state of the specified port.
+     *            The port to shoot from.
+     * @param histogram
+     *            An array of one element more than there are ports, to store the counts into. The
+     *            number of grids where the ray ends up in a {@link Propagator#HIT} is stored at
+     *            index 0, and the number of grids where it comes out from port {@code p} at index
+     *            {@code p + 1}. A {@code REFLECT} is therefore counted at index {@code port + 1}.
      */
-    LinkedList<Grid> getConsistentGrids(int port, Ports compared) {
-        LinkedList<Grid> consistent = new LinkedList<>();
-        for (Grid grid : this) {
-            if (grid.getPorts().isConsistent(port, compared)) {
-                consistent.add(grid);
+    void fillHistogram(int port, int[] histogram) {
+        Arrays.fill(histogram, 0);
+        if (store != null) {
+            int[] storeHistogram = getStoreHistograms()[port];
+            System.arraycopy(storeHistogram, 0, histogram, 0, storeHistogram.length);
+            return;
+        }
+        if (orbitSizes != null) {
+            fillSymmetricHistogram(port, histogram);
+            return;
+        }
+        byte[] column = outcomes[port];
+        for (int w = 0; w < survivors.length; w++) {
+            long word = survivors[w];
+            if (word == -1L) {
+                // all 64 classes are possible, plain scan of the column
+                for (int c = w << 6, end = c + 64; c < end; c++) {
+                    histogram[column[c] - Propagator.HIT] += classStarts[c + 1] - classStarts[c];
+                }
+                continue;
+            }
+            for (; word != 0; word &= word - 1) {
+                int c = (w << 6) + Long.numberOfTrailingZeros(word);
+                histogram[column[c] - Propagator.HIT] += classStarts[c + 1] - classStarts[c];
+            }
+        }
+    }
+
+    /**
+     * Fills the histogram of the specified port from the canonical grids. The outcome of the port
+     * in the image of a grid by a symmetry {@code g} is the image by {@code g} of the outcome of the
+     * inverse image of the port. Going through the 8 symmetries counts each grid of an orbit
+     * {@code 8 / orbitSize} times, hence the weight of {@code orbitSize / 8} per symmetry.
+     */
+    private void fillSymmetricHistogram(int port, int[] histogram) {
+        int[] buckets = new int[nPorts - Propagator.HIT];
+        for (int g = 0; g < Symmetry.COUNT; g++) {
+            byte[] column = outcomes[symmetry.getPort(symmetry.inverse(g), port)];
+            for (int o = Propagator.HIT; o < nPorts; o++) {
+                buckets[o - Propagator.HIT] = symmetry.getOutcome(g, o) - Propagator.HIT;
+            }
+            for (int r = 0; r < nGrids; r++) {
+                histogram[buckets[column[r] - Propagator.HIT]] += orbitSizes[r];
             }
         }
-        return consistent;
+        for (int o = 0; o < histogram.length; o++) {
+            histogram[o] /= Symmetry.COUNT;
+        }
+    }
+
+    /**
+     * Returns the histograms of all the ports for the file-backed grids. They are computed together
+     * the first time one of them is needed, so that the file is read only once per observation even
+     * if the ports are scored concurrently.
+     */
+    private synchronized int[][] getStoreHistograms() {
+        if (storeHistograms == null) {
+            int[][] histograms = new int[nPorts][nPorts + 1];
+            store.fillHistograms(histograms);
+            storeHistograms = histograms;
+        }
+        return storeHistograms;
     }
 }
@@ -0,0 +1,55 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of a {@link SolverPhase}. It is only a counter, which the solving classes increment
+ * once per chunk of work. Listeners read it whenever they want to, for instance at a fixed rate to
+ * draw a progress bar, without slowing down the work.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public final class Progress {
+
+    private final long total;
+
+    private final AtomicLong done = new AtomicLong();
+
+    /**
+     * Creates a new {@code Progress} with nothing done yet.
+     *
+     * @param total
+     *            The total amount of work, 0 if unknown.
+     */
+    Progress(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Returns the total amount of work of the phase.
+     *
+     * @return the total amount of work, or 0 if unknown.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the amount of work done so far. It may be read from any thread.
+     *
+     * @return the amount of work done so far.
+     */
+    public long getDone() {
+        return done.get();
+    }
+
+    /**
+     * Adds the specified amount of work to the work done.
+     *
+     * @param amount
+     *            The amount of work that has just been done.
+     */
+    void advance(long amount) {
+        done.addAndGet(amount);
+    }
+}
@@ -0,0 +1,233 @@
+package org.hildan.games.blackbox.ai;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hildan.games.blackbox.model.Ball;
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * Generates puzzles of a chosen difficulty: random grids that have a unique solution, and that the
+ * solver needs a number of shots within a given band to solve.
+ * <p>
+ * The balls of candidate {@code n} are drawn from {@code new Random(seed + n)}, so each puzzle can be
+ * rebuilt from its own seed with {@link Grid#Grid(BoardGeometry, int, Random)}. The candidates are
+ * solved concurrently, against possible grids generated once and shared by all of them, but they
+ * are accepted in order, so that the output only depends on the seed.
+ * <p>
+ * The puzzles are written as they are accepted, one JSON object per line.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class PuzzleGenerator {
+
+    /**
+     * The number of candidates solved ahead of the one being accepted, per thread.
+     */
+    private static final int PENDING_CANDIDATES_PER_THREAD = 16;
+
+    /**
+     * The number of shots of a candidate whose solution is not unique.
+     */
+    private static final int AMBIGUOUS = -1;
+
+    private final BoardGeometry geometry;
+
+    private final int nBalls;
+
+    private final int nThreads;
+
+    /**
+     * Creates a new {@code PuzzleGenerator}.
+     *
+     * @param geometry
+     *            The geometry of the board of each puzzle.
+     * @param nBalls
+     *            The number of hidden balls of each puzzle.
+     * @param nThreads
+     *            The number of candidates solved at the same time.
+     * @throws IllegalArgumentException
+     *             if there are too many possible grids to prove that a solution is unique
+     */
+    public PuzzleGenerator(BoardGeometry geometry, int nBalls, int nThreads) {
+        if (new Combinations(geometry.getNbCells(), nBalls).count() > SolvingAssistant.MAX_ENUMERATED_GRIDS) {
+            throw new IllegalArgumentException("Too many possible grids to prove that a solution is unique");
+        }
+        this.geometry = geometry;
+        this.nBalls = nBalls;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Generates puzzles until the specified number of them is reached, or until the specified
+     * number of candidates have been tried.
+     *
+     * @param nPuzzles
+     *            The number of puzzles to generate.
+     * @param minShots
+     *            The minimum number of shots the solver needs for a puzzle.
+     * @param maxShots
+     *            The maximum number of shots the solver needs for a puzzle.
+     * @param seed
+     *            The seed the balls of the candidates are drawn from.
+     * @param maxCandidates
+     *            The maximum number of candidates to try, in case the band is too narrow.
+     * @param out
+     *            The writer to write the puzzles to. It is flushed but not closed.
+     * @return the statistics of the generation.
+     * @throws IOException
+     *             if the puzzles could not be written
+     * @throws InterruptedException
+     *             if interrupted while waiting for the candidates to be solved
+     */
+    public Report generate(int nPuzzles, int minShots, int maxShots, long seed, long maxCandidates, Writer out)
+            throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            long start = System.nanoTime();
+            PossibleGridList universe = new PossibleGridList(geometry, nBalls, SolverListener.NONE);
+            Report report = new Report(geometry, nBalls);
+            Deque<Future<Integer>> pending = new ArrayDeque<>();
+            long next = 0;
+            while (report.nPuzzles < nPuzzles && (next < maxCandidates || !pending.isEmpty())) {
+                for (; next < maxCandidates && pending.size() < nThreads * PENDING_CANDIDATES_PER_THREAD; next++) {
+                    long candidateSeed = seed + next;
+                    pending.add(executor.submit(() -> countShots(candidateSeed, maxShots, universe)));
+                }
+                long candidateSeed = seed + report.nCandidates;
+                int nShots = pending.poll().get();
+                report.nCandidates++;
+                if (nShots == AMBIGUOUS) {
+                    report.nAmbiguous++;
+                } else if (nShots < minShots || nShots > maxShots) {
+                    report.nOutOfBand++;
+                } else {
+                    report.nPuzzles++;
+                    out.write(toJson(candidateSeed, nShots));
+                    out.write('\n');
+                }
+            }
+            out.flush();
+            report.seconds = (System.nanoTime() - start) / 1e9;
+            return report;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A candidate failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BallSet getBalls(long candidateSeed) {
+        return BallSet.random(geometry, nBalls, new Random(candidateSeed));
+    }
+
+    /**
+     * Solves the candidate drawn from the specified seed.
+     *
+     * @return the number of shots the solver needed, {@code maxShots + 1} if it needed more, or
+     *         {@link #AMBIGUOUS} if other grids show the same outcomes as the candidate.
+     */
+    private int countShots(long candidateSeed, int maxShots, PossibleGridList universe) {
+        Grid grid = new Grid(getBalls(candidateSeed));
+        SolvingAssistant assistant = new SolvingAssistant(nBalls, universe, SolverListener.NONE);
+        int nShots = 0;
+        while (!assistant.isSolutionFound()) {
+            if (nShots == maxShots) {
+                // out of the band anyway, no need to finish
+                return maxShots + 1;
+            }
+            int port = assistant.chooseEntryPort();
+            if (port < 0) {
+                // no grid is consistent with the shots
+                return AMBIGUOUS;
+            }
+            int outcome = grid.shoot(port);
+            if (outcome == Propagator.HIT) {
+                assistant.setHit(port);
+            } else if (outcome == port) {
+                assistant.setReflect(port);
+            } else {
+                assistant.setDetour(port, outcome);
+            }
+            nShots++;
+        }
+        return assistant.getNbPossibilities() == 1 ? nShots : AMBIGUOUS;
+    }
+
+    private String toJson(long candidateSeed, int nShots) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"seed\":").append(candidateSeed);
+        json.append(",\"shots\":").append(nShots);
+        json.append(",\"balls\":[");
+        boolean first = true;
+        for (Ball ball : getBalls(candidateSeed)) {
+            json.append(first ? "" : ",").append('[').append(ball.i).append(',').append(ball.j).append(']');
+            first = false;
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * The statistics of a generation.
+     */
+    public static class Report {
+
+        private final BoardGeometry geometry;
+
+        private final int nBalls;
+
+        private long nCandidates;
+
+        private long nAmbiguous;
+
+        private long nOutOfBand;
+
+        private int nPuzzles;
+
+        private double seconds;
+
+        private Report(BoardGeometry geometry, int nBalls) {
+            this.geometry = geometry;
+            this.nBalls = nBalls;
+        }
+
+        /**
+         * Returns the number of puzzles generated.
+         *
+         * @return the number of puzzles generated.
+         */
+        public int getNbPuzzles() {
+            return nPuzzles;
+        }
+
+        /**
+         * Returns this report in JSON format, on a single line.
+         *
+         * @return this report in JSON format.
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"size\":").append(geometry.getSize());
+            json.append(",\"balls\":").append(nBalls);
+            json.append(",\"puzzles\":").append(nPuzzles);
+            json.append(",\"candidates\":").append(nCandidates);
+            json.append(",\"ambiguous\":").append(nAmbiguous);
+            json.append(",\"outOfBand\":").append(nOutOfBand);
+            json.append(",\"seconds\":").append(seconds);
+            json.append(",\"puzzlesPerSecond\":").append(nPuzzles / seconds);
+            json.append('}');
+            return json.toString();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.hildan.games.blackbox.ai;
+
+/**
+ * A way to score a port from the outcome histogram of its ray over the possible grids. The lower
+ * the score, the better the port.
+ * <p>
+ * All the strategies work on the same histogram, so that several of them can be evaluated with a
+ * single pass over the possible grids.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public interface ScoringStrategy {
+
+    /**
+     * Scores a port from its outcome histogram.
+     *
+     * @param histogram
+     *            The number of possible grids for each outcome of the ray shot from the port. Some
+     *            buckets may be empty.
+     * @return the score of the port, lower being better.
+     */
+    double score(int[] histogram);
+}
@@ -0,0 +1,293 @@
+package org.hildan.games.blackbox.ai;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * Plays many random games with {@link SolvingAssistant}s, without any console output, to evaluate
+ * the solver.
+ * <p>
+ * The games are played concurrently. When the possible grids can be enumerated, they are generated
+ * once and shared by all the games, each game only keeping track of the grids it eliminated. The
+ * hidden balls of each game are drawn from a seed derived from the seed of the batch, so that a
+ * batch can be replayed exactly.
+ * <p>
+ * The games of a batch share a private {@link TranspositionCache}, which is empty when the batch
+ * starts. The shared cache, which may hold an opening book or the choices of earlier batches, is
+ * not used, so that batches can be compared with each other.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class SelfPlay {
+
+    private final BoardGeometry geometry;
+
+    private final int nBalls;
+
+    private final int nThreads;
+
+    /**
+     * Creates a new {@code SelfPlay}.
+     *
+     * @param geometry
+     *            The geometry of the board of each game.
+     * @param nBalls
+     *            The number of hidden balls of each game.
+     * @param nThreads
+     *            The number of games played at the same time.
+     */
+    public SelfPlay(BoardGeometry geometry, int nBalls, int nThreads) {
+        this.geometry = geometry;
+        this.nBalls = nBalls;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Plays the specified number of games.
+     *
+     * @param nGames
+     *            The number of games to play.
+     * @param seed
+     *            The seed the hidden balls of the games are drawn from.
+     * @return the statistics of the games.
+     * @throws InterruptedException
+     *             if interrupted while waiting for the games to finish
+     */
+    public Report play(int nGames, long seed) throws InterruptedException {
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            long start = System.nanoTime();
+            long nGrids = new Combinations(geometry.getNbCells(), nBalls).count();
+            PossibleGridList universe = nGrids <= SolvingAssistant.MAX_ENUMERATED_GRIDS
+                    ? new PossibleGridList(geometry, nBalls, SolverListener.NONE) : null;
+            TranspositionCache cache = new TranspositionCache(TranspositionCache.DEFAULT_CAPACITY);
+            List<Future<long[]>> games = new ArrayList<>(nGames);
+            for (int i = 0; i < nGames; i++) {
+                Random random = new Random(seed + i);
+                BallSet balls = BallSet.random(geometry, nBalls, random);
+                games.add(executor.submit(() -> playGame(balls, universe, cache)));
+            }
+            Report report = new Report(geometry, nBalls, nGames);
+            for (Future<long[]> game : games) {
+                report.add(game.get());
+            }
+            report.cacheEntries = cache.size();
+            report.seconds = (System.nanoTime() - start) / 1e9;
+            for (MemoryPoolMXBean pool : pools) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    report.peakHeapBytes += pool.getPeakUsage().getUsed();
+                }
+            }
+            return report;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A game failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Solves the specified grid.
+     *
+     * @return the duration in nanoseconds of each move, which is the choice of a port and the
+     *         update of the possible grids after the shot, or {@code null} if the game could not be
+     *         solved, or if the hidden balls are not among the solutions found.
+     */
+    private long[] playGame(BallSet balls, PossibleGridList universe, TranspositionCache cache) {
+        Grid grid = new Grid(balls);
+        SolvingAssistant assistant = universe != null ? new SolvingAssistant(nBalls, universe, SolverListener.NONE)
+                : new SolvingAssistant(geometry, nBalls);
+        assistant.setTranspositionCache(cache);
+        long[] latencies = new long[8];
+        int nMoves = 0;
+        while (!assistant.isSolutionFound()) {
+            long start = System.nanoTime();
+            int port = assistant.chooseEntryPort();
+            if (port < 0) {
+                // no grid is consistent with the shots
+                return null;
+            }
+            int outcome = grid.shoot(port);
+            if (outcome == Propagator.HIT) {
+                assistant.setHit(port);
+            } else if (outcome == port) {
+                assistant.setReflect(port);
+            } else {
+                assistant.setDetour(port, outcome);
+            }
+            if (nMoves == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * nMoves);
+            }
+            latencies[nMoves++] = System.nanoTime() - start;
+        }
+        if (!isAmongSolutions(balls, assistant)) {
+            return null;
+        }
+        return Arrays.copyOf(latencies, nMoves);
+    }
+
+    private static boolean isAmongSolutions(BallSet balls, SolvingAssistant assistant) {
+        if (assistant.getNbPossibilities() == 0) {
+            return false;
+        }
+        for (Grid solution : assistant.getSolutions()) {
+            if (solution.getBalls().equals(balls)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The statistics of a batch of games.
+     */
+    public static class Report {
+
+        private final BoardGeometry geometry;
+
+        private final int nBalls;
+
+        private final int nGames;
+
+        /**
+         * The number of games that could not be solved, or whose solutions do not include the
+         * hidden balls.
+         */
+        private int nUnsolved;
+
+        /**
+         * {@code shots[n]} is the number of games solved in {@code n} shots.
+         */
+        private int[] shots = new int[0];
+
+        private long[] latencies = new long[64];
+
+        private int nMoves;
+
+        private double seconds;
+
+        private long peakHeapBytes;
+
+        /**
+         * The number of choices stored in the private cache of the batch.
+         */
+        private int cacheEntries;
+
+        private Report(BoardGeometry geometry, int nBalls, int nGames) {
+            this.geometry = geometry;
+            this.nBalls = nBalls;
+            this.nGames = nGames;
+        }
+
+        private void add(long[] gameLatencies) {
+            if (gameLatencies == null) {
+                nUnsolved++;
+                return;
+            }
+            int nShots = gameLatencies.length;
+            if (nShots >= shots.length) {
+                shots = Arrays.copyOf(shots, nShots + 1);
+            }
+            shots[nShots]++;
+            if (nMoves + nShots > latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.max(2 * latencies.length, nMoves + nShots));
+            }
+            System.arraycopy(gameLatencies, 0, latencies, nMoves, nShots);
+            nMoves += nShots;
+        }
+
+        /**
+         * Returns the number of games played per second, including the generation of the possible
+         * grids.
+         *
+         * @return the number of games played per second.
+         */
+        public double getGamesPerSecond() {
+            return nGames / seconds;
+        }
+
+        /**
+         * Returns the average number of shots of the solved games.
+         *
+         * @return the average number of shots of the solved games, 0 if none was solved.
+         */
+        public double getAverageShots() {
+            if (nUnsolved == nGames) {
+                return 0;
+            }
+            long total = 0;
+            for (int n = 0; n < shots.length; n++) {
+                total += (long) n * shots[n];
+            }
+            return (double) total / (nGames - nUnsolved);
+        }
+
+        /**
+         * Returns the specified percentile of the duration of the moves.
+         *
+         * @param percentile
+         *            The percentile, between 0 and 100.
+         * @return the duration in milliseconds below which the specified percentage of the moves
+         *         fall.
+         */
+        public double getLatencyPercentile(double percentile) {
+            if (nMoves == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, nMoves);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(rank, sorted.length - 1))] / 1e6;
+        }
+
+        /**
+         * Returns this report in JSON format, on a single line.
+         *
+         * @return this report in JSON format.
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"size\":").append(geometry.getSize());
+            json.append(",\"balls\":").append(nBalls);
+            json.append(",\"games\":").append(nGames);
+            json.append(",\"unsolved\":").append(nUnsolved);
+            json.append(",\"cache\":\"private\"");
+            json.append(",\"cacheEntries\":").append(cacheEntries);
+            json.append(",\"seconds\":").append(seconds);
+            json.append(",\"gamesPerSecond\":").append(getGamesPerSecond());
+            json.append(",\"averageShots\":").append(getAverageShots());
+            json.append(",\"shots\":{");
+            boolean first = true;
+            for (int n = 0; n < shots.length; n++) {
+                if (shots[n] > 0) {
+                    json.append(first ? "" : ",").append('"').append(n).append("\":").append(shots[n]);
+                    first = false;
+                }
+            }
+            json.append("},\"moveLatencyMs\":{");
+            json.append("\"p50\":").append(getLatencyPercentile(50));
+            json.append(",\"p90\":").append(getLatencyPercentile(90));
+            json.append(",\"p99\":").append(getLatencyPercentile(99));
+            json.append(",\"max\":").append(getLatencyPercentile(100));
+            json.append("},\"peakHeapBytes\":").append(peakHeapBytes);
+            json.append('}');
+            return json.toString();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.hildan.games.blackbox.ai;
+
+import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.ports.State;
+
+/**
+ * Receives the events of the solving classes, which don't print anything themselves. All the
+ * methods do nothing by default.
+ * <p>
+ * The events of a given {@link SolvingAssistant} or {@link ComputerSolver} are sent from the thread
+ * that calls it, one at a time. The same listener may be shared by several of them, in which case
+ * it must be thread-safe.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public interface SolverListener {
+
+    /**
+     * A listener that ignores all the events.
+     */
+    SolverListener NONE = new SolverListener() {};
+
+    /**
+     * Called when a time-consuming phase starts.
+     *
+     * @param phase
+     *            The phase that starts.
+     * @param progress
+     *            The progress of the phase, which is updated until {@link #phaseEnded(SolverPhase)}
+     *            is called.
+     */
+    default void phaseStarted(SolverPhase phase, Progress progress) {}
+
+    /**
+     * Called when the current phase ends.
+     *
+     * @param phase
+     *            The phase that ends.
+     */
+    default void phaseEnded(SolverPhase phase) {}
+
+    /**
+     * Called when a {@link SolvingAssistant} has chosen the port to try.
+     *
+     * @param port
+     *            The chosen port, or -1 if no port can help.
+     * @param nPossibilities
+     *            The number of possible grids.
+     * @param exact
+     *            {@code false} if the number of possible grids is only an estimate.
+     */
+    default void portChosen(int port, long nPossibilities, boolean exact) {}
+
+    /**
+     * Called when a {@link ComputerSolver} has shot a ray.
+     *
+     * @param grid
+     *            The grid being solved, after the shot.
+     * @param port
+     *            The port the ray was shot from.
+     * @param state
+     *            The discovered state of the port.
+     */
+    default void portTested(Grid grid, int port, State state) {}
+
+    /**
+     * Called when a {@link ComputerSolver} has found the solution.
+     *
+     * @param solution
+     *            The first possible grid.
+     * @param nSolutions
+     *            The number of possible grids, more than 1 if some grids show the same outcome
+     *            from every port, and cannot be told apart.
+     */
+    default void solutionFound(Grid solution, int nSolutions) {}
+}
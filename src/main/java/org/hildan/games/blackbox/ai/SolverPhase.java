@@ -0,0 +1,56 @@
+package org.hildan.games.blackbox.ai;
+
+/**
+ * An enum listing the time-consuming steps of the solving classes, reported to a
+ * {@link SolverListener}.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public enum SolverPhase {
+
+    /**
+     * Finding the grids that are not the image of another grid by a {@link Symmetry}. The progress
+     * counts the combinations of balls.
+     */
+    SYMMETRY("Looking for symmetric grids"),
+    /**
+     * Tracing the rays of all the possible grids. The progress counts the traced grids, which are
+     * only the canonical grids of the orbits when the symmetries are used.
+     */
+    GENERATION("Generating all possible grids"),
+    /**
+     * Removing the grids that are inconsistent with a new port's state.
+     */
+    FILTERING("Removing inconsistent grids"),
+    /**
+     * Enumerating the consistent grids with a constraint solver, while sampling.
+     */
+    SEARCH("Searching consistent grids"),
+    /**
+     * Moving the sampled grids after a new port's state is known.
+     */
+    SAMPLING("Sampling consistent grids"),
+    /**
+     * Choosing a port by looking several shots ahead.
+     */
+    LOOKAHEAD("Looking several shots ahead"),
+    /**
+     * Scoring the ports. The progress counts the ports.
+     */
+    SCORING("Looking for the best port to test");
+
+    private final String description;
+
+    private SolverPhase(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Returns a short human-readable description of this phase.
+     *
+     * @return a short description of this phase, without final punctuation.
+     */
+    public String getDescription() {
+        return description;
+    }
+}
@@ -1,13 +1,18 @@
 package org.hildan.games.blackbox.ai;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.stream.IntStream;
 
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.Grid;
 import org.hildan.games.blackbox.model.ports.Ports;
 import org.hildan.games.blackbox.model.ports.State;
-import org.hildan.utils.console.drawing.progress.OneTimeProgressBar;
 
 /**
  * A helper that contains useful methods to keep track of the state of a BlackBox game and computes
@@ -17,54 +22,268 @@ import org.hildan.utils.console.drawing.progress.OneTimeProgressBar;
  */
 public class SolvingAssistant {
 
+    /**
+     * Above this number of possible grids, the grids are not enumerated in the heap. Instead, they
+     * are stored in a file if a spill directory is given, or the consistent grids are sampled by a
+     * {@link GridSampler}.
+     */
+    static final long MAX_ENUMERATED_GRIDS = 20000000;
+
+    /**
+     * Above this number of possible grids, the grids are not stored in a file either.
+     */
+    private static final long MAX_STORED_GRIDS = Integer.MAX_VALUE;
+
+    /**
+     * When sampling, the consistent grids are enumerated as soon as there are estimated to be at
+     * most this many, unless specified otherwise.
+     */
+    public static final int DEFAULT_ENUMERATION_THRESHOLD = 100000;
+
+    /**
+     * When sampling, the number of consistent grids used to score the ports.
+     */
+    private static final int SAMPLE_SIZE = 2000;
+
+    /**
+     * When sampling, the number of moves tried on each sampled grid after each observation.
+     */
+    private static final int MOVES_PER_OBSERVATION = 200;
+
+    private static final long SAMPLER_SEED = 42;
+
+    /**
+     * When sampling, the number of nodes a search of the consistent grids may go through, so that
+     * an observation never takes too long to process.
+     */
+    private static final long MAX_SEARCH_NODES = 1000000;
+
+    private final BoardGeometry geometry;
+
+    private final int nBalls;
+
+    private final int enumerationThreshold;
+
+    private final SolverListener listener;
+
+    /**
+     * The possible grids, or {@code null} as long as there are too many of them.
+     */
     private PossibleGridList possibleGrids;
 
+    private GridSampler sampler;
+
+    private ConstraintSolver solver;
+
+    /**
+     * The estimated number of possible grids while sampling.
+     */
+    private double nbSampledGrids;
+
     private Ports testPorts;
 
+    private ScoringStrategy scoringStrategy = new ExpectedRemainingStrategy();
+
+    private int lookaheadDepth = 1;
+
+    private int lookaheadWidth;
+
+    private TranspositionCache cache = TranspositionCache.getShared();
+
     /**
-     * Creates a new {@code SolvingHelper} to find the position of {@code nBalls} balls in a grid of
-     * the current size.
+     * Creates a new {@code SolvingHelper} to find the position of {@code nBalls} balls in a board of
+     * the specified geometry.
      *
+     * @param geometry
+     *            The geometry of the board.
      * @param nBalls
      *            The number of hidden balls to find.
      */
-    public SolvingAssistant(int nBalls) {
-        testPorts = new Ports();
-        possibleGrids = new PossibleGridList(nBalls);
+    public SolvingAssistant(BoardGeometry geometry, int nBalls) {
+        this(geometry, nBalls, DEFAULT_ENUMERATION_THRESHOLD);
     }
 
     /**
-     * Returns whether a solution has been found.
+     * Creates a new {@code SolvingHelper} to find the position of {@code nBalls} balls in a board of
+     * the specified geometry.
      *
-     * @return {@code false} if more than 1 possible grid are left, {@code true} otherwise.
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden balls to find.
+     * @param listener
+     *            The listener to report the progress and the decisions to.
+     */
+    public SolvingAssistant(BoardGeometry geometry, int nBalls, SolverListener listener) {
+        this(geometry, nBalls, DEFAULT_ENUMERATION_THRESHOLD, null, listener);
+    }
+
+    /**
+     * Creates a new {@code SolvingHelper} to find the position of {@code nBalls} balls in a board of
+     * the specified geometry.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden balls to find.
+     * @param enumerationThreshold
+     *            When there are too many possible grids to enumerate them from the start, they are
+     *            sampled until there are estimated to be at most this many.
+     */
+    public SolvingAssistant(BoardGeometry geometry, int nBalls, int enumerationThreshold) {
+        this(geometry, nBalls, enumerationThreshold, null, SolverListener.NONE);
+    }
+
+    /**
+     * Creates a new {@code SolvingHelper} to find the position of {@code nBalls} balls in a board of
+     * the specified geometry.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden balls to find.
+     * @param enumerationThreshold
+     *            When there are too many possible grids to enumerate them from the start, they are
+     *            sampled until there are estimated to be at most this many.
+     * @param spillDirectory
+     *            A directory where the possible grids may be stored when there are too many of them
+     *            for the heap, or {@code null} to sample them instead.
+     * @param listener
+     *            The listener to report the progress and the decisions to.
+     * @throws UncheckedIOException
+     *             if the file to store the grids into could not be created
+     */
+    public SolvingAssistant(BoardGeometry geometry, int nBalls, int enumerationThreshold, Path spillDirectory,
+            SolverListener listener) {
+        this(geometry, nBalls, MAX_ENUMERATED_GRIDS, enumerationThreshold, spillDirectory, listener);
+    }
+
+    /**
+     * Creates a new {@code SolvingHelper} to find the position of {@code nBalls} balls in a board of
+     * the specified geometry.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden balls to find.
+     * @param maxEnumeratedGrids
+     *            Above this number of possible grids, the grids are not enumerated from the start.
+     * @param enumerationThreshold
+     *            When there are too many possible grids to enumerate them from the start, they are
+     *            sampled until there are estimated to be at most this many.
+     * @param spillDirectory
+     *            A directory where the possible grids may be stored when there are too many of them
+     *            to enumerate, or {@code null} to sample them instead.
+     * @param listener
+     *            The listener to report the progress and the decisions to.
+     * @throws UncheckedIOException
+     *             if the file to store the grids into could not be created
+     */
+    SolvingAssistant(BoardGeometry geometry, int nBalls, long maxEnumeratedGrids, int enumerationThreshold,
+            Path spillDirectory, SolverListener listener) {
+        this.geometry = geometry;
+        this.nBalls = nBalls;
+        this.enumerationThreshold = enumerationThreshold;
+        this.listener = listener;
+        testPorts = new Ports(geometry);
+        long nGrids = new Combinations(geometry.getNbCells(), nBalls).count();
+        if (nGrids <= maxEnumeratedGrids) {
+            possibleGrids = new PossibleGridList(geometry, nBalls, listener);
+        } else if (spillDirectory != null && nGrids <= MAX_STORED_GRIDS) {
+            try {
+                possibleGrids = new PossibleGridList(geometry, nBalls,
+                        Files.createTempFile(spillDirectory, "blackbox-grids", ".bin"), listener);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            sampler = new GridSampler(nBalls, testPorts, SAMPLE_SIZE, SAMPLER_SEED);
+            solver = new ConstraintSolver(nBalls, testPorts, MAX_SEARCH_NODES);
+            nbSampledGrids = nGrids;
+        }
+    }
+
+    /**
+     * Creates a new {@code SolvingHelper} starting from the specified possible grids, which are
+     * shared with other assistants and not modified.
+     *
+     * @param nBalls
+     *            The number of hidden balls to find.
+     * @param universe
+     *            All the possible grids for this number of balls, in the heap.
+     * @param listener
+     *            The listener to report the progress and the decisions to.
+     * @see PossibleGridList#PossibleGridList(PossibleGridList, SolverListener)
+     */
+    SolvingAssistant(int nBalls, PossibleGridList universe, SolverListener listener) {
+        this.geometry = universe.getGeometry();
+        this.nBalls = nBalls;
+        this.enumerationThreshold = DEFAULT_ENUMERATION_THRESHOLD;
+        this.listener = listener;
+        testPorts = new Ports(geometry);
+        possibleGrids = new PossibleGridList(universe, listener);
+    }
+
+    /**
+     * Returns whether a solution has been found, up to indistinguishable alternatives: the possible
+     * grids that are left, if more than one, show the same outcome from every port, so that no shot
+     * can tell them apart.
+     *
+     * @return {@code false} if the possible grids can still be told apart, {@code true} otherwise.
+     * @see #getSolutions()
      */
     public boolean isSolutionFound() {
-        return possibleGrids.size() <= 1;
+        return possibleGrids != null && possibleGrids.getNbClasses() <= 1;
+    }
+
+    /**
+     * Returns whether all the possible grids are enumerated. If not, there are too many of them,
+     * and {@link #getNbPossibilities()} is only an estimate.
+     *
+     * @return {@code true} if the number of possible grids is exact.
+     */
+    public boolean isExhaustive() {
+        return possibleGrids != null;
     }
 
     /**
      * Returns the number of possible {@link Grid}s.
      *
-     * @return the number of possible {@link Grid}s.
+     * @return the number of possible {@link Grid}s, or an estimate if this assistant is not
+     *         {@link #isExhaustive() exhaustive}.
      */
-    public int getNbPossibilities() {
-        return possibleGrids.size();
+    public long getNbPossibilities() {
+        return possibleGrids != null ? possibleGrids.size() : Math.round(nbSampledGrids);
     }
 
     /**
-     * Returns the only possible {@link Grid}. If more than one {@code Grid} are left, or none at
-     * all, this method throws an exception.
+     * Returns the solution {@link Grid}. If the possible grids can still be told apart, or if
+     * there are none at all, this method throws an exception.
      *
-     * @return the solution Grid.
+     * @return the solution Grid, the first one if there are indistinguishable alternatives.
      */
     public Grid getSolution() {
+        return getSolutions().get(0);
+    }
+
+    /**
+     * Returns the solution {@link Grid} and its indistinguishable alternatives. If the possible
+     * grids can still be told apart, or if there are none at all, this method throws an exception.
+     *
+     * @return the possible grids, which all show the same outcome from every port.
+     */
+    public List<Grid> getSolutions() {
+        if (!isSolutionFound()) {
+            throw new RuntimeException("Not a unique solution");
+        }
         if (possibleGrids.size() == 0) {
             throw new RuntimeException("No possible solution!");
         }
-        if (possibleGrids.size() > 1) {
-            throw new RuntimeException("Not a unique solution");
+        List<Grid> solutions = new ArrayList<>(possibleGrids.size());
+        for (int i = 0; i < possibleGrids.size(); i++) {
+            solutions.add(possibleGrids.getGrid(i));
         }
-        return possibleGrids.getFirst();
+        return solutions;
     }
 
     /**
@@ -75,7 +294,7 @@ public class SolvingAssistant {
      */
     public void setHit(int port) {
         testPorts.setHit(port);
-        possibleGrids.removeInconsistentGrids(port, testPorts);
+        removeInconsistentGrids(port);
     }
 
     /**
@@ -86,7 +305,7 @@ public class SolvingAssistant {
      */
     public void setReflect(int port) {
         testPorts.setReflect(port);
-        possibleGrids.removeInconsistentGrids(port, testPorts);
+        removeInconsistentGrids(port);
     }
 
     /**
@@ -99,81 +318,246 @@ public class SolvingAssistant {
      */
     public void setDetour(int port, int twin) {
         testPorts.setDetour(port, twin);
-        possibleGrids.removeInconsistentGrids(port, testPorts);
+        removeInconsistentGrids(port);
     }
 
     /**
-     * Chooses the best entry port to try in the current situation. This is based on the average
-     * information gain given by knowing the state of a port. The chosen port is the one with the
-     * maximum average information gain.
+     * Takes into account the new state of the specified port. When sampling, the number of
+     * consistent grids is estimated from the fraction of the sampled grids that are still
+     * consistent. When there seem to be few enough of them, they are counted, and enumerated if the
+     * estimate was right. The search is bounded, and the sampling goes on if it runs out of budget.
      *
-     * @return the best port to try in the current situation.
+     * @param port
+     *            The port that has just been tested.
      */
-    public int chooseEntryPort() {
-        System.out.println("Looking for the best port to test...");
-        TreeMap<Double, Integer> eps = new TreeMap<>();
-        OneTimeProgressBar progress = new OneTimeProgressBar(Ports.size(), 50);
-        progress.begin();
-        for (int port = 0; port < Ports.size(); port++) {
-            if (testPorts.getState(port) != State.UNKNOWN) {
-                continue;
+    private void removeInconsistentGrids(int port) {
+        if (possibleGrids != null) {
+            possibleGrids.removeInconsistentGrids(port, testPorts);
+            return;
+        }
+        double consistentFraction = sampler.observe();
+        nbSampledGrids *= consistentFraction;
+        if (nbSampledGrids <= enumerationThreshold) {
+            listener.phaseStarted(SolverPhase.SEARCH, new Progress(0));
+            long count = solver.count(enumerationThreshold + 1);
+            long[] keys = count >= 0 && count <= enumerationThreshold ? searchGrids((int) count) : null;
+            listener.phaseEnded(SolverPhase.SEARCH);
+            if (keys != null && keys.length == count) {
+                possibleGrids = new PossibleGridList(geometry, nBalls, keys, listener);
+                sampler = null;
+                solver = null;
+                return;
+            }
+            if (count >= 0) {
+                // the estimate was too low, the count is a better one
+                nbSampledGrids = count;
             }
-            eps.put(getAvgRemainingGrids(port), port);
-            progress.printProgress(port + 1);
         }
-        progress.end();
-        if (eps.size() > 0) {
-            return eps.get(eps.firstKey());
-        } else {
+        if (consistentFraction == 0) {
+            // all the sampled grids were lost, restart from the first ones the solver finds
+            long[] keys = searchGrids(SAMPLE_SIZE);
+            if (keys.length > 0) {
+                sampler.reset(keys);
+            }
+            // the hidden grid itself is still possible
+            nbSampledGrids = Math.max(nbSampledGrids, Math.max(keys.length, 1));
+        }
+        listener.phaseStarted(SolverPhase.SAMPLING, new Progress(0));
+        sampler.mix(MOVES_PER_OBSERVATION);
+        listener.phaseEnded(SolverPhase.SAMPLING);
+    }
+
+    /**
+     * Returns the keys of the first consistent grids found by the solver, within its budget.
+     *
+     * @param max
+     *            The maximum number of grids to find.
+     * @return an array containing the keys of at most {@code max} consistent grids, fewer if there
+     *         are not that many or if the budget ran out.
+     */
+    private long[] searchGrids(int max) {
+        long[] keys = new long[max];
+        int[] count = { 0 };
+        if (max > 0) {
+            solver.forEach(key -> {
+                keys[count[0]++] = key;
+                return count[0] < max;
+            });
+        }
+        return Arrays.copyOf(keys, count[0]);
+    }
+
+    /**
+     * Sets the strategy used by {@link #chooseEntryPort()} to score the ports.
+     *
+     * @param scoringStrategy
+     *            The new scoring strategy.
+     */
+    public void setScoringStrategy(ScoringStrategy scoringStrategy) {
+        this.scoringStrategy = scoringStrategy;
+    }
+
+    /**
+     * Sets the cache {@link #chooseEntryPort()} stores its choices into and looks them up from,
+     * which is the {@link TranspositionCache#getShared() shared cache} by default.
+     *
+     * @param cache
+     *            The new cache, or {@code null} to compute every choice.
+     */
+    void setTranspositionCache(TranspositionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Makes {@link #chooseEntryPort()} look several shots ahead, instead of only scoring the next
+     * shot. This only applies once the possible grids are enumerated and a port is known, and
+     * minimizes the expected number of shots to find the solution whatever the
+     * {@link ScoringStrategy}.
+     *
+     * @param depth
+     *            The number of shots to look ahead, 1 to only score the next shot.
+     * @param width
+     *            The number of most promising ports to explore after each shot. The cost of a
+     *            decision grows as {@code width^depth}.
+     */
+    public void setLookahead(int depth, int width) {
+        this.lookaheadDepth = depth;
+        this.lookaheadWidth = width;
+    }
+
+    /**
+     * Chooses the best entry port to try in the current situation, according to the current
+     * {@link ScoringStrategy}. By default, this is based on the average number of grids left when
+     * knowing the state of a port. The chosen port is the one with the minimum average number of
+     * remaining grids.
+     * <p>
+     * When all the possible grids are enumerated, the chosen port is stored in the
+     * {@link TranspositionCache}, the shared one by default, and looked up there first.
+     *
+     * @return the best port to try in the current situation, or -1 if no port can tell the possible
+     *         grids apart.
+     * @see #setLookahead(int, int)
+     */
+    public int chooseEntryPort() {
+        int port = findEntryPort();
+        listener.portChosen(port, getNbPossibilities(), isExhaustive());
+        return port;
+    }
+
+    /**
+     * Chooses the best entry port to try, without reporting it to the listener.
+     */
+    private int findEntryPort() {
+        if (isSolutionFound()) {
             return -1;
         }
+        if (possibleGrids == null) {
+            // the sampled grids depend on the history of the game, not only on the known ports
+            return chooseEntryPorts(scoringStrategy)[0];
+        }
+        // the lookahead only runs on expanded grids, the key describes the strategy that runs
+        boolean lookahead = lookaheadDepth > 1 && possibleGrids.isExpanded();
+        if (cache == null) {
+            return computeEntryPort(lookahead);
+        }
+        int depth = lookahead ? lookaheadDepth : 1;
+        int width = lookahead ? lookaheadWidth : 0;
+        String scoring = scoringStrategy.getClass().getName() + ':' + depth + ':' + width;
+        String key = TranspositionCache.getKey(nBalls, scoring, testPorts);
+        Integer cachedPort = cache.get(key);
+        if (cachedPort != null) {
+            return cachedPort;
+        }
+        int port = computeEntryPort(lookahead);
+        cache.put(key, port);
+        return port;
     }
 
     /**
-     * Returns the average number of grids left when the state of the specified port is known.
+     * Chooses the best entry port to try among the enumerated possible grids, without looking it up
+     * in the cache.
      *
-     * @param port
-     *            The port to test.
-     * @return the average number of grids left when the state of the specified port is known.
+     * @param lookahead
+     *            Whether to look several shots ahead, or to only score the next shot.
      */
-    private double getAvgRemainingGrids(int port) {
-        LinkedList<Double> nRemainingGrids = new LinkedList<>();
-        double nbGrids;
-        testPorts.setHit(port);
-        nbGrids = possibleGrids.getConsistentGrids(port, testPorts).size();
-        nRemainingGrids.add(nbGrids);
-        testPorts.setReflect(port);
-        nbGrids = possibleGrids.getConsistentGrids(port, testPorts).size();
-        nRemainingGrids.add(nbGrids);
-        for (int twin = 0; twin < Ports.size(); twin++) {
-            if (twin == port || testPorts.isKnown(twin)) {
-                continue;
+    private int computeEntryPort(boolean lookahead) {
+        int port = -1;
+        if (lookahead) {
+            listener.phaseStarted(SolverPhase.LOOKAHEAD, new Progress(0));
+            port = new Lookahead(possibleGrids, lookaheadDepth, lookaheadWidth).chooseEntryPort(testPorts);
+            listener.phaseEnded(SolverPhase.LOOKAHEAD);
+        }
+        if (port < 0) {
+            port = chooseEntryPorts(scoringStrategy)[0];
+        }
+        return port;
+    }
+
+    /**
+     * Chooses the best entry port to try in the current situation, for each of the specified
+     * strategies. The outcome histogram of each port is computed only once, and scored by all the
+     * strategies.
+     * <p>
+     * When there are too many possible grids to enumerate them, the scores are estimated on a
+     * {@link GridSampler sample} of consistent grids.
+     * <p>
+     * The ports are scored concurrently. When several ports have the same score, the one with the
+     * lowest number is chosen, so that the result does not depend on the evaluation order.
+     *
+     * @param strategies
+     *            The strategies to score the ports with.
+     * @return the best port to try according to each strategy, at the same index as the
+     *         strategy, or -1 if all ports are known.
+     */
+    public int[] chooseEntryPorts(ScoringStrategy... strategies) {
+        final int nPorts = geometry.getNbPorts();
+        final double[][] scores = new double[strategies.length][nPorts];
+        final Progress scored = new Progress(nPorts);
+        listener.phaseStarted(SolverPhase.SCORING, scored);
+        IntStream.range(0, nPorts).parallel().forEach(port -> {
+            // equivalent ports have the same score, and the lowest one wins anyway
+            if (testPorts.getState(port) != State.UNKNOWN
+                    || possibleGrids != null && possibleGrids.getEquivalentPort(port) != port) {
+                for (double[] strategyScores : scores) {
+                    strategyScores[port] = Double.NaN;
+                }
+            } else {
+                int[] histogram = new int[nPorts + 1];
+                if (possibleGrids != null) {
+                    possibleGrids.fillHistogram(port, histogram);
+                } else {
+                    // when there are too many grids, the scores are estimated on the sampled grids
+                    sampler.fillHistogram(port, histogram);
+                }
+                for (int s = 0; s < strategies.length; s++) {
+                    scores[s][port] = strategies[s].score(histogram);
+                }
             }
-            testPorts.setDetour(port, twin);
-            nbGrids = possibleGrids.getConsistentGrids(port, testPorts).size();
-            nRemainingGrids.add(nbGrids);
-            testPorts.resetState(port);
+            scored.advance(1);
+        });
+        listener.phaseEnded(SolverPhase.SCORING);
+        int[] bestPorts = new int[strategies.length];
+        for (int s = 0; s < strategies.length; s++) {
+            bestPorts[s] = getBestPort(scores[s]);
         }
-        return weigthedAverage(nRemainingGrids);
+        return bestPorts;
     }
 
     /**
-     * Returns the weighted average of the specified numbers of grids. The weight is the probability
-     * for a subset of grids to remain after testing a port, which is exactly the number of grids
-     * left (for each state) divided by the total number of grids.
+     * Returns the port with the lowest score.
      *
-     * @param nGrids
-     *            A list containing the sizes of the remaining grids subsets to get the average
-     *            from.
-     * @return the weighted average of the specified numbers of grids.
+     * @param scores
+     *            The score of each port, {@link Double#NaN} for the ports that must not be chosen.
+     * @return the lowest port among the ones with the lowest score, or -1 if no port can be chosen.
      */
-    private static double weigthedAverage(List<Double> nGrids) {
-        double totalGrids = 0;
-        double weightedSum = 0;
-        for (double n : nGrids) {
-            totalGrids += n;
-            weightedSum += n * n;
+    private static int getBestPort(double[] scores) {
+        int bestPort = -1;
+        for (int port = 0; port < scores.length; port++) {
+            // strict comparison to keep the lowest port in case of a tie
+            if (!Double.isNaN(scores[port]) && (bestPort < 0 || scores[port] < scores[bestPort])) {
+                bestPort = port;
+            }
         }
-        return weightedSum / totalGrids;
+        return bestPort;
     }
 }
@@ -0,0 +1,66 @@
+package org.hildan.games.blackbox.ai;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hildan.games.blackbox.model.BoardGeometry;
+
+/**
+ * Creates {@link SolvingAssistant}s that share their possible grids, for many games running at the
+ * same time.
+ * <p>
+ * The possible grids of each board size and number of balls are generated once, on first use, and
+ * kept read-only: each assistant only keeps track of the grids it eliminated. When there are too
+ * many possible grids to share them, each assistant samples its own grids instead, and enumerates
+ * them once there are few enough, so that the grids enumerated by a single assistant stay bounded.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class SolvingAssistantFactory {
+
+    private final long maxSharedGrids;
+
+    private final int enumerationThreshold;
+
+    /**
+     * The shared possible grids, by board size and number of balls.
+     */
+    private final ConcurrentMap<String, PossibleGridList> universes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@code SolvingAssistantFactory}.
+     *
+     * @param maxSharedGrids
+     *            Above this number of possible grids, the grids are not shared but sampled by each
+     *            assistant.
+     * @param enumerationThreshold
+     *            The maximum number of grids an assistant enumerates on its own, once it has
+     *            sampled enough observations.
+     */
+    public SolvingAssistantFactory(long maxSharedGrids, int enumerationThreshold) {
+        this.maxSharedGrids = Math.min(maxSharedGrids, SolvingAssistant.MAX_ENUMERATED_GRIDS);
+        this.enumerationThreshold = enumerationThreshold;
+    }
+
+    /**
+     * Creates a new {@link SolvingAssistant} to find the position of {@code nBalls} balls in a board
+     * of the specified geometry. The first assistant for a board size and number of balls may
+     * generate the shared possible grids, which takes a while.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden balls to find.
+     * @return a new assistant, with no known port.
+     */
+    public SolvingAssistant newAssistant(BoardGeometry geometry, int nBalls) {
+        long nGrids = new Combinations(geometry.getNbCells(), nBalls).count();
+        if (nGrids > maxSharedGrids) {
+            return new SolvingAssistant(geometry, nBalls, 0, enumerationThreshold, null,
+                    SolverListener.NONE);
+        }
+        PossibleGridList universe = universes.computeIfAbsent(geometry.getSize() + "x" + nBalls,
+                board -> new PossibleGridList(geometry, nBalls, SolverListener.NONE));
+        return new SolvingAssistant(nBalls, universe, SolverListener.NONE);
+    }
+}
@@ -0,0 +1,207 @@
+package org.hildan.games.blackbox.ai;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.Side;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * The 8 symmetries of the square (rotations and reflections), applied to the cells and ports of a
+ * board of a given geometry.
+ * <p>
+ * The propagation rules are invariant under these symmetries: if a ray shot from port {@code p}
+ * comes out from port {@code q} in a grid, then in the transformed grid, the ray shot from the
+ * transformed {@code p} comes out from the transformed {@code q}.
+ * <p>
+ * Symmetry {@code g} (from 0 to 7) first swaps rows and columns if bit 2 is set, and then mirrors
+ * the rows if bit 0 is set and the columns if bit 1 is set.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class Symmetry {
+
+    /**
+     * The number of symmetries of the square.
+     */
+    static final int COUNT = 8;
+
+    private final int[][] cellMap;
+
+    private final int[][] portMap;
+
+    private final int[] inverse;
+
+    /**
+     * Creates the symmetries for the specified geometry.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     */
+    Symmetry(BoardGeometry geometry) {
+        int size = geometry.getSize();
+        cellMap = new int[COUNT][size * size];
+        portMap = new int[COUNT][geometry.getNbPorts()];
+        inverse = new int[COUNT];
+        for (int g = 0; g < COUNT; g++) {
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    int[] t = transform(g, i, j, size);
+                    cellMap[g][i * size + j] = t[0] * size + t[1];
+                }
+            }
+            for (int port = 0; port < geometry.getNbPorts(); port++) {
+                // ports are outside the grid, on the rows/columns -1 and size
+                int index = geometry.getIndex(port);
+                int[] pos;
+                switch (geometry.getSide(port)) {
+                case TOP:
+                    pos = transform(g, -1, index, size);
+                    break;
+                case BOTTOM:
+                    pos = transform(g, size, index, size);
+                    break;
+                case LEFT:
+                    pos = transform(g, index, -1, size);
+                    break;
+                case RIGHT:
+                default:
+                    pos = transform(g, index, size, size);
+                    break;
+                }
+                portMap[g][port] = getPort(pos[0], pos[1], geometry);
+            }
+        }
+        for (int g = 0; g < COUNT; g++) {
+            for (int h = 0; h < COUNT; h++) {
+                if (isIdentity(g, h)) {
+                    inverse[g] = h;
+                }
+            }
+        }
+    }
+
+    private boolean isIdentity(int g, int h) {
+        for (int cell = 0; cell < cellMap[g].length; cell++) {
+            if (cellMap[h][cellMap[g][cell]] != cell) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] transform(int g, int i, int j, int size) {
+        int a = (g & 4) != 0 ? j : i;
+        int b = (g & 4) != 0 ? i : j;
+        if ((g & 1) != 0) {
+            a = size - 1 - a;
+        }
+        if ((g & 2) != 0) {
+            b = size - 1 - b;
+        }
+        return new int[] { a, b };
+    }
+
+    private static int getPort(int i, int j, BoardGeometry geometry) {
+        if (i == -1) {
+            return geometry.getPortNum(Side.TOP, j);
+        } else if (i == geometry.getSize()) {
+            return geometry.getPortNum(Side.BOTTOM, j);
+        } else if (j == -1) {
+            return geometry.getPortNum(Side.LEFT, i);
+        } else {
+            return geometry.getPortNum(Side.RIGHT, i);
+        }
+    }
+
+    /**
+     * Returns the image of the specified cell by the specified symmetry.
+     *
+     * @param g
+     *            The symmetry to apply.
+     * @param cell
+     *            The number of the cell to transform.
+     * @return the number of the transformed cell.
+     */
+    int getCell(int g, int cell) {
+        return cellMap[g][cell];
+    }
+
+    /**
+     * Returns the image of the specified port by the specified symmetry.
+     *
+     * @param g
+     *            The symmetry to apply.
+     * @param port
+     *            The port to transform.
+     * @return the transformed port.
+     */
+    int getPort(int g, int port) {
+        return portMap[g][port];
+    }
+
+    /**
+     * Returns the image of the specified ray outcome by the specified symmetry.
+     *
+     * @param g
+     *            The symmetry to apply.
+     * @param outcome
+     *            The port a ray came out from, or {@link Propagator#HIT}.
+     * @return the transformed outcome.
+     */
+    int getOutcome(int g, int outcome) {
+        return outcome == Propagator.HIT ? outcome : portMap[g][outcome];
+    }
+
+    /**
+     * Returns the inverse of the specified symmetry.
+     *
+     * @param g
+     *            The symmetry to invert.
+     * @return the symmetry {@code h} such that applying {@code g} and then {@code h} gives back
+     *         the original cells and ports.
+     */
+    int inverse(int g) {
+        return inverse[g];
+    }
+
+    /**
+     * Returns the lowest port among the images of the specified port.
+     *
+     * @param port
+     *            The port to get the orbit of.
+     * @return the lowest port of the orbit of {@code port}.
+     */
+    int getOrbitRepresentative(int port) {
+        int min = port;
+        for (int g = 0; g < COUNT; g++) {
+            min = Math.min(min, portMap[g][port]);
+        }
+        return min;
+    }
+
+    /**
+     * Returns the {@link BallSet} key of the image of the specified balls by the specified
+     * symmetry.
+     *
+     * @param g
+     *            The symmetry to apply.
+     * @param cells
+     *            The cells containing the balls.
+     * @param buffer
+     *            An array of the same length as {@code cells}, used to sort the transformed
+     *            cells.
+     * @return the key of the transformed balls.
+     */
+    long getKey(int g, int[] cells, int[] buffer) {
+        for (int k = 0; k < cells.length; k++) {
+            // insertion sort, there are only a few balls
+            int cell = cellMap[g][cells[k]];
+            int l = k;
+            for (; l > 0 && buffer[l - 1] > cell; l--) {
+                buffer[l] = buffer[l - 1];
+            }
+            buffer[l] = cell;
+        }
+        return BallSet.toKey(buffer);
+    }
+}
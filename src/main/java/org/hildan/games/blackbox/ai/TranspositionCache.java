@@ -0,0 +1,238 @@
+package org.hildan.games.blackbox.ai;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.ports.Ports;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * A bounded cache of the best port to try for a given set of observations. When all the possible
+ * grids are enumerated, the best port only depends on the grid size, the number of balls, the way
+ * the ports are scored, and the known ports. The first moves of a game are therefore always the
+ * same, and don't need to be computed again.
+ * <p>
+ * When the cache is full, the least recently used entry is evicted. The number of hits of each
+ * entry is counted, so that the most used entries can be saved to a file, and loaded as an opening
+ * book when the program starts.
+ * <p>
+ * All methods are thread-safe. The entries are guarded by a single lock, because a lookup also
+ * moves the entry to the end of the access order and counts a hit, so that even the readers need
+ * an exclusive access. This lock is held for a single map operation, while an assistant consults
+ * the cache once per move, and the moves that miss spend milliseconds scoring the ports: even
+ * many concurrent games hardly ever contend for it. Only {@link #save(Path, int)} holds it for a
+ * copy of all the entries, which happens once when the program exits.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class TranspositionCache {
+
+    /**
+     * The default maximum number of entries of a cache.
+     */
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final TranspositionCache SHARED = new TranspositionCache(DEFAULT_CAPACITY);
+
+    private final Map<String, Decision> entries;
+
+    /**
+     * Creates a new empty {@code TranspositionCache}.
+     *
+     * @param capacity
+     *            The maximum number of entries of this cache.
+     */
+    public TranspositionCache(int capacity) {
+        // access order, so that the eldest entry is the least recently used one
+        entries = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all {@link SolvingAssistant}s.
+     *
+     * @return the shared cache.
+     */
+    public static TranspositionCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns a canonical encoding of the specified situation. The known ports are listed in
+     * increasing order, so that the order in which they were tested does not matter.
+     *
+     * @param nBalls
+     *            The number of hidden balls.
+     * @param scoring
+     *            A description of the way the ports are scored.
+     * @param observations
+     *            The known ports.
+     * @return a key representing the situation, without any whitespace.
+     */
+    static String getKey(int nBalls, String scoring, Ports observations) {
+        StringBuilder key = new StringBuilder();
+        BoardGeometry geometry = observations.getGeometry();
+        key.append(geometry.getSize()).append('/').append(nBalls).append('/').append(scoring).append('/');
+        for (int port = 0; port < geometry.getNbPorts(); port++) {
+            if (port > 0) {
+                key.append(',');
+            }
+            if (!observations.isKnown(port)) {
+                key.append('?');
+            } else {
+                int outcome = observations.getOutcome(port);
+                if (outcome == Propagator.HIT) {
+                    key.append('H');
+                } else {
+                    key.append(outcome);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the best port to try in the specified situation, if it is known.
+     *
+     * @param key
+     *            The situation, as encoded by {@link #getKey(int, String, Ports)}.
+     * @return the best port, or {@code null} if this cache does not know it.
+     */
+    synchronized Integer get(String key) {
+        Decision entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.hits++;
+        return entry.port;
+    }
+
+    /**
+     * Stores the best port to try in the specified situation.
+     *
+     * @param key
+     *            The situation, as encoded by {@link #getKey(int, String, Ports)}.
+     * @param port
+     *            The best port to try.
+     */
+    synchronized void put(String key, int port) {
+        entries.put(key, new Decision(port, 0));
+    }
+
+    /**
+     * Returns the number of entries in this cache.
+     *
+     * @return the number of entries in this cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the most used entries of this cache to the specified file, one per line.
+     *
+     * @param file
+     *            The file to write to. It is overwritten if it exists.
+     * @param maxEntries
+     *            The maximum number of entries to write.
+     * @throws IOException
+     *             if the file could not be written
+     */
+    public void save(Path file, int maxEntries) throws IOException {
+        List<Map.Entry<String, Decision>> hottest;
+        synchronized (this) {
+            hottest = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Decision> e : entries.entrySet()) {
+                hottest.add(new SimpleImmutableEntry<>(e.getKey(),
+                        new Decision(e.getValue().port, e.getValue().hits)));
+            }
+        }
+        hottest.sort((e1, e2) -> Integer.compare(e2.getValue().hits, e1.getValue().hits));
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Decision> e : hottest.subList(0, Math.min(maxEntries, hottest.size()))) {
+                writer.write(e.getKey() + ' ' + e.getValue().port + ' ' + e.getValue().hits);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Adds the entries of the specified file to this cache. The file is expected to have been
+     * written by {@link #save(Path, int)}.
+     *
+     * @param file
+     *            The file to read from.
+     * @throws IOException
+     *             if the file could not be read or is malformed, in which case the entries before
+     *             the malformed line are kept
+     */
+    public void load(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 3) {
+                    throw new IOException("Malformed opening book line: " + line);
+                }
+                Decision entry;
+                try {
+                    entry = new Decision(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed opening book line: " + line, e);
+                }
+                if (entry.port < 0 || entry.port >= 4 * getSize(fields[0])) {
+                    throw new IOException("Invalid port in opening book line: " + line);
+                }
+                synchronized (this) {
+                    entries.put(fields[0], entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the board of the specified key, as encoded by
+     * {@link #getKey(int, String, Ports)}.
+     *
+     * @throws IOException
+     *             if the key does not start with a valid board size
+     */
+    private static int getSize(String key) throws IOException {
+        int size;
+        try {
+            size = Integer.parseInt(key.substring(0, Math.max(key.indexOf('/'), 0)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed opening book key: " + key, e);
+        }
+        if (size <= 0) {
+            throw new IOException("Invalid board size in opening book key: " + key);
+        }
+        return size;
+    }
+
+    private static final class Decision {
+
+        final int port;
+
+        int hits;
+
+        Decision(int port, int hits) {
+            this.port = port;
+            this.hits = hits;
+        }
+    }
+}
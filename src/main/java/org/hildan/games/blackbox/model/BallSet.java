@@ -0,0 +1,352 @@
+package org.hildan.games.blackbox.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A set of {@link Ball}s stored as a bitboard. The cell at row {@code i} and column {@code j} is
+ * represented by the bit {@code i * size + j}, so that a grid up to 8x8 fits in a single
+ * {@code long}, and bigger grids use a few more words.
+ * <p>
+ * All operations on a single ball are O(1), which makes this set suitable for the ray propagation.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class BallSet implements Iterable<Ball> {
+
+    /**
+     * The maximum number of balls a key can represent.
+     *
+     * @see #toKey()
+     */
+    public static final int MAX_KEY_BALLS = 8;
+
+    /**
+     * The maximum number of cells in a grid for its balls to be represented by a key.
+     *
+     * @see #toKey()
+     */
+    public static final int MAX_KEY_CELLS = 254;
+
+    private final BoardGeometry geometry;
+
+    private final int size;
+
+    private final long[] words;
+
+    /**
+     * Creates a new empty set for boards of the specified geometry.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     */
+    public BallSet(BoardGeometry geometry) {
+        this.geometry = geometry;
+        this.size = geometry.getSize();
+        this.words = new long[(geometry.getNbCells() + 63) >>> 6];
+    }
+
+    /**
+     * Creates a copy of the specified set.
+     *
+     * @param balls
+     *            The set to copy.
+     */
+    public BallSet(BallSet balls) {
+        this.geometry = balls.geometry;
+        this.size = balls.size;
+        this.words = balls.words.clone();
+    }
+
+    /**
+     * Creates a set of balls placed randomly in distinct cells. The same random generator state
+     * always gives the same balls.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of balls to place.
+     * @param random
+     *            The random generator to draw the cells from.
+     * @return a new set of exactly {@code nBalls} balls.
+     */
+    public static BallSet random(BoardGeometry geometry, int nBalls, Random random) {
+        if (nBalls < 0 || nBalls > geometry.getNbCells()) {
+            throw new IllegalArgumentException("Cannot place " + nBalls + " balls in "
+                    + geometry.getNbCells() + " cells");
+        }
+        BallSet balls = new BallSet(geometry);
+        // a cell drawn twice does not count, another one is drawn instead
+        while (balls.size() < nBalls) {
+            balls.addCell(random.nextInt(geometry.getNbCells()));
+        }
+        return balls;
+    }
+
+    /**
+     * Returns the geometry of the board these balls are in.
+     *
+     * @return the geometry of the board.
+     */
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Returns the number of the cell at the specified coordinates.
+     *
+     * @param i
+     *            The row of the cell.
+     * @param j
+     *            The column of the cell.
+     * @return the number of the cell at the specified coordinates.
+     */
+    public int getCell(int i, int j) {
+        return i * size + j;
+    }
+
+    /**
+     * Returns the row of the specified cell.
+     *
+     * @param cell
+     *            The number of the cell.
+     * @return the row of the specified cell.
+     */
+    public int getRow(int cell) {
+        return cell / size;
+    }
+
+    /**
+     * Returns the column of the specified cell.
+     *
+     * @param cell
+     *            The number of the cell.
+     * @return the column of the specified cell.
+     */
+    public int getCol(int cell) {
+        return cell % size;
+    }
+
+    /**
+     * Adds a {@link Ball} at the specified coordinates. Nothing happens if there is already a ball
+     * there.
+     *
+     * @param i
+     *            The row of the {@code Ball} to add.
+     * @param j
+     *            The column of the {@code Ball} to add.
+     */
+    public void add(int i, int j) {
+        addCell(getCell(i, j));
+    }
+
+    /**
+     * Adds a {@link Ball} in the specified cell. Nothing happens if there is already a ball there.
+     *
+     * @param cell
+     *            The number of the cell to add a ball into.
+     */
+    public void addCell(int cell) {
+        words[cell >>> 6] |= 1L << cell;
+    }
+
+    /**
+     * Removes the {@link Ball} at the specified coordinates from this set.
+     *
+     * @param i
+     *            The row of the {@code Ball} to remove.
+     * @param j
+     *            The column of the {@code Ball} to remove.
+     */
+    public void remove(int i, int j) {
+        if (!contains(i, j)) {
+            throw new RuntimeException("The specified ball is not in the set.");
+        }
+        int cell = getCell(i, j);
+        words[cell >>> 6] &= ~(1L << cell);
+    }
+
+    /**
+     * Removes all the {@link Ball}s from this set.
+     */
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    /**
+     * Returns whether there is a {@link Ball} at the specified coordinates. The coordinates may be
+     * out of the grid bounds, in which case {@code false} is returned.
+     *
+     * @param i
+     *            The row of the ball to check.
+     * @param j
+     *            The column of the ball to check.
+     * @return {@code true} if there is a ball at the specified coordinates, {@code false}
+     *         otherwise.
+     */
+    public boolean contains(int i, int j) {
+        if (i < 0 || j < 0 || i >= size || j >= size) {
+            return false;
+        }
+        return containsCell(getCell(i, j));
+    }
+
+    /**
+     * Returns whether there is a {@link Ball} in the specified cell.
+     *
+     * @param cell
+     *            The number of the cell to check.
+     * @return {@code true} if there is a ball in the specified cell, {@code false} otherwise.
+     */
+    public boolean containsCell(int cell) {
+        return (words[cell >>> 6] & 1L << cell) != 0;
+    }
+
+    /**
+     * Returns the number of {@link Ball}s in this set.
+     *
+     * @return the number of {@link Ball}s in this set.
+     */
+    public int size() {
+        int count = 0;
+        for (long w : words) {
+            count += Long.bitCount(w);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the first cell containing a {@link Ball}, starting from the specified cell
+     * (inclusive).
+     *
+     * @param fromCell
+     *            The cell to start looking from.
+     * @return the number of the first cell containing a ball, or -1 if there is none.
+     */
+    public int nextCell(int fromCell) {
+        int w = fromCell >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = words[w] & -1L << fromCell;
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /**
+     * Returns a compact key representing this set. Each cell containing a ball takes 8 bits, so
+     * that the key can only represent up to {@link #MAX_KEY_BALLS} balls in grids of up to
+     * {@link #MAX_KEY_CELLS} cells.
+     *
+     * @return a compact key representing this set.
+     * @see #fromKey(long)
+     */
+    public long toKey() {
+        long key = 0;
+        int shift = 0;
+        for (int cell = nextCell(0); cell >= 0; cell = nextCell(cell + 1)) {
+            key |= (long) (cell + 1) << shift;
+            shift += 8;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the key of the set containing balls in the specified cells. This is the same as
+     * {@link #toKey()}, without creating the set.
+     *
+     * @param cells
+     *            The cells containing the balls, in increasing order.
+     * @return the key of the set containing balls in the specified cells.
+     */
+    public static long toKey(int[] cells) {
+        long key = 0;
+        for (int k = 0; k < cells.length; k++) {
+            key |= (long) (cells[k] + 1) << (8 * k);
+        }
+        return key;
+    }
+
+    /**
+     * Creates a new set from a key returned by {@link #toKey()}.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     * @param key
+     *            The key representing the balls.
+     * @return a new set containing the balls represented by the specified key.
+     */
+    public static BallSet fromKey(BoardGeometry geometry, long key) {
+        BallSet balls = new BallSet(geometry);
+        for (; key != 0; key >>>= 8) {
+            balls.addCell((int) (key & 0xFF) - 1);
+        }
+        return balls;
+    }
+
+    /**
+     * Reads the cells represented by the specified key, without creating the set.
+     *
+     * @param key
+     *            The key representing the balls.
+     * @param cells
+     *            The array to store the cells into, in increasing order. It must be large enough
+     *            to contain all the balls.
+     * @return the number of balls represented by the key.
+     */
+    public static int getCells(long key, int[] cells) {
+        int n = 0;
+        for (; key != 0; key >>>= 8) {
+            cells[n++] = (int) (key & 0xFF) - 1;
+        }
+        return n;
+    }
+
+    @Override
+    public Iterator<Ball> iterator() {
+        return new Iterator<Ball>() {
+            private int next = nextCell(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Ball next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                Ball ball = new Ball(getRow(next), getCol(next));
+                next = nextCell(next + 1);
+                return ball;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BallSet)) {
+            return false;
+        }
+        BallSet other = (BallSet) obj;
+        return size == other.size && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(words);
+    }
+}
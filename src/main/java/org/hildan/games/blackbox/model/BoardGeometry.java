@@ -0,0 +1,250 @@
+package org.hildan.games.blackbox.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hildan.games.blackbox.model.propagation.Direction;
+
+/**
+ * The geometry of a square board of a given size: the numbering of its cells and ports, and the
+ * lookup tables used to trace rays.
+ * <p>
+ * The cells are numbered row by row, from {@code 0} to {@code size * size - 1}. The ports are
+ * numbered side by side, in the order of {@link Side}, from {@code 0} to {@code 4 * size - 1}.
+ * <p>
+ * To trace rays, the cells are also indexed in a padded square of side {@code size + 2}, the ports
+ * being the cells of the outer ring (corners excluded). This way, a ray is simply a padded cell and
+ * a {@link Direction}, and no bound has to be checked.
+ * <p>
+ * Instances are immutable, and there is only one instance per size, so that they can be shared
+ * freely between games and threads.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public final class BoardGeometry {
+
+    private static final ConcurrentMap<Integer, BoardGeometry> INSTANCES = new ConcurrentHashMap<>();
+
+    private static final Side[] SIDES = Side.values();
+
+    private final int size;
+
+    private final int nPorts;
+
+    private final int width;
+
+    /** Index offset to move by one padded cell, for each {@link Direction}. */
+    private final int[] delta;
+
+    /** Padded cell of each port. */
+    private final int[] entryCell;
+
+    /** Ordinal of the {@link Direction} of the ray shot from each port. */
+    private final int[] entryDir;
+
+    /** Port at each padded cell, -1 for the inner cells and the corners. */
+    private final int[] portAt;
+
+    /** Cell number of each padded cell, -1 for the outer ring. */
+    private final int[] cellAt;
+
+    private BoardGeometry(int size) {
+        this.size = size;
+        this.nPorts = 4 * size;
+        this.width = size + 2;
+        delta = new int[Direction.values().length];
+        delta[Direction.UP.ordinal()] = -width;
+        delta[Direction.RIGHT.ordinal()] = 1;
+        delta[Direction.DOWN.ordinal()] = width;
+        delta[Direction.LEFT.ordinal()] = -1;
+        entryCell = new int[nPorts];
+        entryDir = new int[nPorts];
+        portAt = new int[width * width];
+        Arrays.fill(portAt, -1);
+        cellAt = new int[width * width];
+        Arrays.fill(cellAt, -1);
+        for (int cell = 0; cell < size * size; cell++) {
+            cellAt[toPadded(cell)] = cell;
+        }
+        for (int port = 0; port < nPorts; port++) {
+            Side side = getSide(port);
+            int index = getIndex(port);
+            int cell;
+            switch (side) {
+            case TOP:
+                cell = index + 1;
+                break;
+            case BOTTOM:
+                cell = (size + 1) * width + index + 1;
+                break;
+            case LEFT:
+                cell = (index + 1) * width;
+                break;
+            case RIGHT:
+            default:
+                cell = (index + 1) * width + size + 1;
+                break;
+            }
+            entryCell[port] = cell;
+            entryDir[port] = side.getDirection().ordinal();
+            portAt[cell] = port;
+        }
+    }
+
+    /**
+     * Returns the geometry of the boards of the specified size.
+     *
+     * @param size
+     *            The number of rows (and columns) of the board.
+     * @return the geometry of the boards of the specified size.
+     */
+    public static BoardGeometry of(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid board size: " + size);
+        }
+        return INSTANCES.computeIfAbsent(size, BoardGeometry::new);
+    }
+
+    /**
+     * Returns the number of rows (and columns) of the board.
+     *
+     * @return the number of rows (and columns) of the board.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of cells of the board.
+     *
+     * @return {@code size * size}.
+     */
+    public int getNbCells() {
+        return size * size;
+    }
+
+    /**
+     * Returns the number of ports of the board.
+     *
+     * @return {@code 4 * size}.
+     */
+    public int getNbPorts() {
+        return nPorts;
+    }
+
+    /**
+     * Returns the number of the specified port.
+     *
+     * @param side
+     *            The {@link Side} of the port.
+     * @param index
+     *            The index of the port within its side.
+     * @return the number of the port.
+     */
+    public int getPortNum(Side side, int index) {
+        return side.ordinal() * size + index;
+    }
+
+    /**
+     * Returns the {@link Side} of the specified port.
+     *
+     * @param port
+     *            The number of the port.
+     * @return the {@link Side} of the port.
+     */
+    public Side getSide(int port) {
+        return SIDES[port / size];
+    }
+
+    /**
+     * Returns the index of the specified port within its {@link Side}.
+     *
+     * @param port
+     *            The number of the port.
+     * @return the index of the port within its side.
+     */
+    public int getIndex(int port) {
+        return port % size;
+    }
+
+    /**
+     * Returns the side of the padded square.
+     *
+     * @return {@code size + 2}.
+     */
+    public int getPaddedWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the padded index of the specified cell.
+     *
+     * @param cell
+     *            The number of the cell.
+     * @return the index of the cell in the padded square.
+     */
+    public int toPadded(int cell) {
+        return (cell / size + 1) * width + cell % size + 1;
+    }
+
+    /**
+     * Returns the offset to add to a padded index to move by one cell in the specified direction.
+     *
+     * @param direction
+     *            The ordinal of the {@link Direction}.
+     * @return the offset of the neighbouring padded cell in that direction.
+     */
+    public int getDelta(int direction) {
+        return delta[direction];
+    }
+
+    /**
+     * Returns the padded index of the specified port.
+     *
+     * @param port
+     *            The number of the port.
+     * @return the padded cell the ray shot from this port starts from.
+     */
+    public int getEntryCell(int port) {
+        return entryCell[port];
+    }
+
+    /**
+     * Returns the direction of the ray shot from the specified port.
+     *
+     * @param port
+     *            The number of the port.
+     * @return the ordinal of the {@link Direction} of the ray.
+     */
+    public int getEntryDirection(int port) {
+        return entryDir[port];
+    }
+
+    /**
+     * Returns the port at the specified padded index.
+     *
+     * @param padded
+     *            The padded index of a cell.
+     * @return the number of the port, or -1 for the inner cells and the corners.
+     */
+    public int getPortAt(int padded) {
+        return portAt[padded];
+    }
+
+    /**
+     * Returns the cell at the specified padded index.
+     *
+     * @param padded
+     *            The padded index of a cell.
+     * @return the number of the cell, or -1 for the outer ring.
+     */
+    public int getCellAt(int padded) {
+        return cellAt[padded];
+    }
+
+    @Override
+    public String toString() {
+        return size + "x" + size;
+    }
+}
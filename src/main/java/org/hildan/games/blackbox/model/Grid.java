@@ -17,48 +17,63 @@ import org.hildan.utils.console.drawing.grids.BoxChars;
 public class Grid {
 
     /**
-     * The size of all {@code Grid}s.
+     * The ports to shoot rays from in this {@code Grid}.
      */
-    public static Integer size = null;
+    protected Ports entryPorts;
 
     /**
-     * The ports to shoot rays from in this {@code Grid}.
+     * The balls hidden in this {@code Grid}.
      */
-    protected Ports entryPorts;
+    protected BallSet balls;
 
     protected Propagator propagator;
 
     /**
-     * Creates a new empty {@code Grid}.
+     * Create a grid with the specified balls, in a board of the geometry of the balls.
+     *
+     * @param balls
+     *            The balls to place in this {@code Grid}.
      */
-    private Grid() {
-        entryPorts = new Ports();
-        propagator = new Propagator(new BallList());
+    public Grid(BallSet balls) {
+        this.entryPorts = new Ports(balls.getGeometry());
+        this.balls = balls;
+        this.propagator = new Propagator(balls);
     }
 
     /**
-     * Create a grid with the specified balls.
+     * Create a grid with {@code nBalls} balls placed randomly, in distinct cells.
      *
-     * @param balls
-     *            The balls to place in this {@code Grid}.
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            Number of balls to generate.
      */
-    public Grid(BallList balls) {
-        this();
-        this.propagator.balls = balls;
+    public Grid(BoardGeometry geometry, int nBalls) {
+        this(geometry, nBalls, new Random());
     }
 
     /**
-     * Create a grid with {@code nBalls} balls placed randomly.
+     * Create a grid with {@code nBalls} balls placed randomly, in distinct cells. The same random
+     * generator state always gives the same grid.
      *
+     * @param geometry
+     *            The geometry of the board.
      * @param nBalls
      *            Number of balls to generate.
+     * @param random
+     *            The random generator to place the balls with.
      */
-    public Grid(int nBalls) {
-        this();
-        Random rand = new Random();
-        for (int k = 0; k < nBalls; k++) {
-            propagator.balls.add(rand.nextInt(size), rand.nextInt(size));
-        }
+    public Grid(BoardGeometry geometry, int nBalls, Random random) {
+        this(BallSet.random(geometry, nBalls, random));
+    }
+
+    /**
+     * Returns the geometry of the board of this {@code Grid}.
+     *
+     * @return the geometry of the board.
+     */
+    public BoardGeometry getGeometry() {
+        return balls.getGeometry();
     }
 
     /**
@@ -67,7 +82,16 @@ public class Grid {
      * @return the number of {@link Ball}s hidden in this {@code Grid}.
      */
     public int getNBalls() {
-        return propagator.balls.size();
+        return balls.size();
+    }
+
+    /**
+     * Returns a copy of the {@link Ball}s hidden in this {@code Grid}.
+     *
+     * @return a copy of the {@link Ball}s hidden in this {@code Grid}.
+     */
+    public BallSet getBalls() {
+        return new BallSet(balls);
     }
 
     /**
@@ -103,13 +127,30 @@ public class Grid {
      * {@link State#UNKNOWN} state .
      */
     public void shootAll() {
-        for (Side s : Side.values()) {
-            for (int i = 0; i < size; i++) {
-                shoot(s, i);
+        for (int port = 0; port < getGeometry().getNbPorts(); port++) {
+            // the twin of a detour is already known, no need to shoot it again
+            if (!entryPorts.isKnown(port)) {
+                shoot(port);
             }
         }
     }
 
+    /**
+     * Shoots a ray from each of the specified ports.
+     *
+     * @param ports
+     *            The ports to shoot from.
+     * @param outcomes
+     *            The array to store the outcome of each shot into, at the same index as the
+     *            corresponding port. See {@link #shoot(int)} for the meaning of the outcomes.
+     */
+    public void shootMany(int[] ports, int[] outcomes) {
+        propagator.propagateRays(ports, outcomes);
+        for (int k = 0; k < ports.length; k++) {
+            entryPorts.setOutcome(ports[k], outcomes[k]);
+        }
+    }
+
     /**
      * Shoots a ray from the specified {@link Side}, at the specified position on this side.
      *
@@ -117,20 +158,10 @@ public class Grid {
      *            The {@code Side} to shoot from.
      * @param index
      *            The index of the port within the specified {@code Side}.
-     * @return The twin of the tested port if the result is a {@link State#DETOUR}, {@code null}
-     *         otherwise.
-     */
-    public Integer shoot(Side side, int index) {
-        int port = Ports.getPortNum(side, index);
-        Integer dest = propagator.propagateRay(side, index);
-        if (dest == null) {
-            entryPorts.setHit(port);
-        } else if (dest == port) {
-            entryPorts.setReflect(port);
-        } else {
-            entryPorts.setDetour(port, dest);
-        }
-        return dest;
+     * @return The port where the ray came out, or {@link Propagator#HIT} if it ran into a ball.
+     */
+    public int shoot(Side side, int index) {
+        return shoot(getGeometry().getPortNum(side, index));
     }
 
     /**
@@ -138,13 +169,14 @@ public class Grid {
      *
      * @param port
      *            The port to shoot from.
-     * @return The twin of the tested port if the result is a {@link State#DETOUR}, {@code null}
-     *         otherwise.
+     * @return The port where the ray came out, or {@link Propagator#HIT} if it ran into a ball.
+     *         The returned port is {@code port} itself in case of {@link State#REFLECT}, and its
+     *         twin in case of {@link State#DETOUR}.
      */
-    public Integer shoot(int port) {
-        Side side = Ports.getSide(port);
-        int index = Ports.getIndex(port);
-        return shoot(side, index);
+    public int shoot(int port) {
+        int outcome = propagator.propagateRay(port);
+        entryPorts.setOutcome(port, outcome);
+        return outcome;
     }
 
     private static final String BALL = " " + BlockChars.BLACK_CIRCLE;
@@ -177,6 +209,7 @@ public class Grid {
      * @return a {@code String} representation of the ports' states of the specified {@code Side}.
      */
     private String getEntryPortsStr(Side side) {
+        int size = getGeometry().getSize();
         StringBuilder sb = new StringBuilder();
         sb.append(V);
         for (int i = 0; i < size; i++) {
@@ -194,7 +227,8 @@ public class Grid {
      *            The balls to display in the grid.
      * @return a {@code String} representation of this grid.
      */
-    protected String toString(BallList ballsToDisplay) {
+    protected String toString(BallSet ballsToDisplay) {
+        int size = getGeometry().getSize();
         StringBuilder sb = new StringBuilder();
         String newLine = Drawing.NEW_LINE;
         sb.append(Drawing.repeat(H, size, 2, "", "   " + ULC, URC));
@@ -236,6 +270,6 @@ public class Grid {
 
     @Override
     public String toString() {
-        return toString(propagator.balls);
+        return toString(balls);
     }
 }
@@ -7,17 +7,19 @@ package org.hildan.games.blackbox.model;
  */
 public class GuessableGrid extends Grid {
 
-    private BallList guesses;
+    private BallSet guesses;
 
     /**
      * Creates a new {@code GuessableGrid}.
      * 
+     * @param geometry
+     *            The geometry of the board.
      * @param nBalls
      *            The number of balls to guess.
      */
-    public GuessableGrid(int nBalls) {
-        super(nBalls);
-        guesses = new BallList();
+    public GuessableGrid(BoardGeometry geometry, int nBalls) {
+        super(geometry, nBalls);
+        guesses = new BallSet(geometry);
     }
 
     /**
@@ -52,17 +54,7 @@ public class GuessableGrid extends Grid {
      *         guessed, {@code false} otherwise.
      */
     public boolean amIRight() {
-        for (Ball b : guesses) {
-            if (!propagator.balls.contains(b)) {
-                return false;
-            }
-        }
-        for (Ball b : propagator.balls) {
-            if (!guesses.contains(b)) {
-                return false;
-            }
-        }
-        return true;
+        return guesses.equals(balls);
     }
 
     @Override
@@ -2,82 +2,248 @@ package org.hildan.games.blackbox.model.ports;
 
 import java.util.Arrays;
 
-import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.Side;
+import org.hildan.games.blackbox.model.propagation.Propagator;
 
+/**
+ * The states of the ports around a board.
+ * <p>
+ * The state of each port is stored as the outcome of the ray shot from it, so that reading the
+ * outcome of a port, or checking an outcome against it, is a single array access. The detours are
+ * numbered in the order they were found, for display.
+ * <p>
+ * Hypothetical states can be set after a {@link #mark()}, and undone by
+ * {@link #rollback(int)}, without any allocation once the journal has grown to its working size.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
 public class Ports {
 
-    private State[] states;
-    private DetourList detours;
+    /**
+     * The outcome of the ports that have not been tested.
+     */
+    private static final int UNTESTED = -2;
 
-    public Ports() {
-        states = new State[size()];
-        Arrays.fill(states, State.UNKNOWN);
-        detours = new DetourList();
-    }
-    
-    public static int size() {
-        return Grid.size * 4;
-    }
+    /**
+     * The journal entry of a change of {@link #nDetours}, instead of a port.
+     */
+    private static final int DETOUR_COUNT = -1;
 
-    public static int getPortNum(Side side, int index) {
-        return side.ordinal() * Grid.size + index;
-    }
+    private final BoardGeometry geometry;
+
+    /**
+     * The outcome of each port: {@link Propagator#HIT}, the port itself for a reflection, its twin
+     * for a detour, or {@link #UNTESTED}.
+     */
+    private final int[] outcomes;
+
+    /**
+     * The number of the detour of each port in the {@link State#DETOUR} state.
+     */
+    private final int[] detourNumbers;
+
+    private int nDetours;
+
+    /**
+     * The previous values of the changes made since the first pending mark: the port (or
+     * {@link #DETOUR_COUNT}), its previous outcome (or the previous number of detours), and its
+     * previous detour number.
+     */
+    private int[] journal;
 
-    private static final Side[] SIDES = Side.values();
+    private int journalLength;
 
-    public static Side getSide(int port) {
-        return SIDES[port / Grid.size];
+    private int nMarks;
+
+    /**
+     * Creates new ports, all untested, for a board of the specified geometry.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     */
+    public Ports(BoardGeometry geometry) {
+        this.geometry = geometry;
+        outcomes = new int[geometry.getNbPorts()];
+        Arrays.fill(outcomes, UNTESTED);
+        detourNumbers = new int[geometry.getNbPorts()];
+        journal = new int[0];
     }
 
-    public static int getIndex(int port) {
-        return port % Grid.size;
+    /**
+     * Returns the geometry of the board these ports are around.
+     *
+     * @return the geometry of the board.
+     */
+    public BoardGeometry getGeometry() {
+        return geometry;
     }
 
     public boolean isKnown(int port) {
-        return getState(port) != State.UNKNOWN;
+        return outcomes[port] != UNTESTED;
     }
 
     public State getState(Side side, int index) {
-        return states[getPortNum(side, index)];
+        return getState(geometry.getPortNum(side, index));
     }
 
     public State getState(int port) {
-        return states[port];
-    }
-
-    private void setState(int port, State state) {
-        states[port] = state;
+        int outcome = outcomes[port];
+        if (outcome == UNTESTED) {
+            return State.UNKNOWN;
+        } else if (outcome == Propagator.HIT) {
+            return State.HIT;
+        } else if (outcome == port) {
+            return State.REFLECT;
+        } else {
+            return State.DETOUR;
+        }
     }
 
     public void resetState(int port) {
         if (getState(port) == State.DETOUR) {
-            int twin = detours.remove(port);
-            setState(twin, State.UNKNOWN);
+            int twin = outcomes[port];
+            int number = detourNumbers[port];
+            set(twin, UNTESTED, 0);
+            // the following detours move down to keep the numbers contiguous
+            for (int p = 0; p < outcomes.length; p++) {
+                if (getState(p) == State.DETOUR && detourNumbers[p] > number) {
+                    set(p, outcomes[p], detourNumbers[p] - 1);
+                }
+            }
+            setDetourCount(nDetours - 1);
         }
-        setState(port, State.UNKNOWN);
+        set(port, UNTESTED, 0);
     }
 
     public void setHit(int port) {
-        setState(port, State.HIT);
+        setOutcome(port, Propagator.HIT);
     }
 
     public void setReflect(int port) {
-        setState(port, State.REFLECT);
+        setOutcome(port, port);
     }
 
     public void setDetour(int port, int twin) {
-        setState(port, State.DETOUR);
-        setState(twin, State.DETOUR);
-        detours.add(port, twin);
+        setOutcome(port, twin);
     }
 
-    public boolean isConsistent(int port, Ports compared) {
-        State state = getState(port);
-        if (compared.getState(port) != state) {
-            return false;
+    /**
+     * Sets the state of the specified port from the outcome of a ray shot from it. If the port (or
+     * the twin of a detour) was already known with a different outcome, its former state is reset
+     * first.
+     *
+     * @param port
+     *            The port the ray was shot from.
+     * @param outcome
+     *            The port the ray came out from, or {@link Propagator#HIT}.
+     */
+    public void setOutcome(int port, int outcome) {
+        if (outcomes[port] == outcome) {
+            return;
+        }
+        if (isKnown(port)) {
+            resetState(port);
+        }
+        if (outcome == Propagator.HIT || outcome == port) {
+            set(port, outcome, 0);
+            return;
+        }
+        if (isKnown(outcome)) {
+            resetState(outcome);
+        }
+        set(port, outcome, nDetours);
+        set(outcome, port, nDetours);
+        setDetourCount(nDetours + 1);
+    }
+
+    /**
+     * Returns the outcome of a ray shot from the specified port, according to the current state of
+     * that port.
+     *
+     * @param port
+     *            The port the ray is shot from.
+     * @return {@link Propagator#HIT} for a {@link State#HIT}, the port itself for a
+     *         {@link State#REFLECT}, or its twin for a {@link State#DETOUR}.
+     */
+    public int getOutcome(int port) {
+        int outcome = outcomes[port];
+        if (outcome == UNTESTED) {
+            throw new IllegalStateException("The state of port " + port + " is unknown.");
+        }
+        return outcome;
+    }
+
+    /**
+     * Returns whether the specified outcome of a ray shot from the specified port is consistent
+     * with the current state of that port.
+     *
+     * @param port
+     *            The port the ray was shot from.
+     * @param outcome
+     *            The port the ray came out from, or {@link Propagator#HIT}.
+     * @return {@code true} if the port is still unknown or if its state matches the specified
+     *         outcome, {@code false} otherwise.
+     */
+    public boolean isConsistent(int port, int outcome) {
+        int known = outcomes[port];
+        return known == UNTESTED || known == outcome;
+    }
+
+    /**
+     * Starts recording the changes of states, so that they can be undone by
+     * {@link #rollback(int)}. Marks can be nested, and each of them must be rolled back, in the
+     * reverse order they were taken.
+     *
+     * @return the mark to roll back to.
+     */
+    public int mark() {
+        nMarks++;
+        return journalLength;
+    }
+
+    /**
+     * Restores the states of all the ports as they were when the specified mark was taken.
+     *
+     * @param mark
+     *            The mark returned by the last {@link #mark()} that was not rolled back yet.
+     */
+    public void rollback(int mark) {
+        while (journalLength > mark) {
+            journalLength -= 3;
+            int port = journal[journalLength];
+            if (port == DETOUR_COUNT) {
+                nDetours = journal[journalLength + 1];
+            } else {
+                outcomes[port] = journal[journalLength + 1];
+                detourNumbers[port] = journal[journalLength + 2];
+            }
+        }
+        nMarks--;
+    }
+
+    private void set(int port, int outcome, int detourNumber) {
+        record(port, outcomes[port], detourNumbers[port]);
+        outcomes[port] = outcome;
+        detourNumbers[port] = detourNumber;
+    }
+
+    private void setDetourCount(int count) {
+        record(DETOUR_COUNT, nDetours, 0);
+        nDetours = count;
+    }
+
+    private void record(int port, int previousOutcome, int previousDetourNumber) {
+        if (nMarks == 0) {
+            return;
+        }
+        if (journalLength + 3 > journal.length) {
+            journal = Arrays.copyOf(journal, Math.max(3 * outcomes.length, 2 * journal.length));
         }
-        return state != State.DETOUR || compared.detours.getTwin(port) == detours.getTwin(port);
+        journal[journalLength] = port;
+        journal[journalLength + 1] = previousOutcome;
+        journal[journalLength + 2] = previousDetourNumber;
+        journalLength += 3;
     }
 
     /**
@@ -99,7 +265,7 @@ public class Ports {
         case REFLECT:
             return "R";
         case DETOUR:
-            return Integer.toString(detours.getDetourNumber(port));
+            return Integer.toString(detourNumbers[port]);
         }
         throw new RuntimeException("Impossible state: " + getState(port));
     }
@@ -117,6 +283,6 @@ public class Ports {
      *         detour.
      */
     public String getStateString(Side side, int index) {
-        return getStateString(getPortNum(side, index));
+        return getStateString(geometry.getPortNum(side, index));
     }
 }
@@ -0,0 +1,138 @@
+package org.hildan.games.blackbox.model.propagation;
+
+import java.util.Arrays;
+
+import org.hildan.games.blackbox.model.BoardGeometry;
+
+/**
+ * Traces rays through a grid of balls that changes a few balls at a time, without re-tracing the
+ * rays that are not affected by the changes.
+ * <p>
+ * The path of a ray only depends on the cells it looks at: at each step, the cell in front of it
+ * and the two cells diagonally in front of it. Those cells are remembered for each ray as a bitmap
+ * of padded cells. The cells where a ball was added or removed are gathered in another bitmap, and
+ * only the rays that looked at one of them are traced again when the outcomes are requested.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class IncrementalPropagator {
+
+    private final BoardGeometry geometry;
+
+    private final boolean[] occupied;
+
+    private final int[] outcomes;
+
+    /**
+     * The bitmap of the padded cells each ray looked at.
+     */
+    private final long[][] looked;
+
+    /**
+     * The bitmap of the padded cells that changed since the outcomes were last requested.
+     */
+    private final long[] changed;
+
+    private boolean initialized;
+
+    /**
+     * Creates a new {@code IncrementalPropagator} for an empty grid.
+     *
+     * @param geometry
+     *            The geometry of the board.
+     */
+    public IncrementalPropagator(BoardGeometry geometry) {
+        this.geometry = geometry;
+        int nPaddedCells = geometry.getPaddedWidth() * geometry.getPaddedWidth();
+        occupied = new boolean[nPaddedCells];
+        outcomes = new int[geometry.getNbPorts()];
+        looked = new long[geometry.getNbPorts()][(nPaddedCells + 63) >>> 6];
+        changed = new long[(nPaddedCells + 63) >>> 6];
+    }
+
+    /**
+     * Adds a ball in the specified cell.
+     *
+     * @param cell
+     *            The number of the cell, as defined by
+     *            {@link org.hildan.games.blackbox.model.BallSet}.
+     */
+    public void addBall(int cell) {
+        int padded = geometry.toPadded(cell);
+        occupied[padded] = true;
+        changed[padded >>> 6] |= 1L << padded;
+    }
+
+    /**
+     * Removes the ball from the specified cell.
+     *
+     * @param cell
+     *            The number of the cell, as defined by
+     *            {@link org.hildan.games.blackbox.model.BallSet}.
+     */
+    public void removeBall(int cell) {
+        int padded = geometry.toPadded(cell);
+        occupied[padded] = false;
+        changed[padded >>> 6] |= 1L << padded;
+    }
+
+    /**
+     * Returns the outcome of the ray shot from each port. Only the rays that looked at a cell that
+     * changed since the last call are traced again.
+     *
+     * @return an array containing the number of the port reached by the ray shot from each port,
+     *         or {@link Propagator#HIT}. This array is reused by the next calls.
+     */
+    public int[] getOutcomes() {
+        for (int port = 0; port < outcomes.length; port++) {
+            if (!initialized || intersects(looked[port], changed)) {
+                outcomes[port] = trace(port, looked[port]);
+            }
+        }
+        Arrays.fill(changed, 0);
+        initialized = true;
+        return outcomes;
+    }
+
+    private static boolean intersects(long[] bitmap1, long[] bitmap2) {
+        for (int w = 0; w < bitmap1.length; w++) {
+            if ((bitmap1[w] & bitmap2[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Traces the ray shot from the specified port, and records the cells it looks at. This follows
+     * the same rules as {@link Propagator#propagateRay(int)}.
+     */
+    private int trace(int port, long[] path) {
+        Arrays.fill(path, 0);
+        final BoardGeometry geometry = this.geometry;
+        int pos = geometry.getEntryCell(port);
+        int dir = geometry.getEntryDirection(port);
+        while (true) {
+            int straight = pos + geometry.getDelta(dir);
+            path[straight >>> 6] |= 1L << straight;
+            if (occupied[straight]) {
+                return Propagator.HIT;
+            }
+            int frontLeft = straight + geometry.getDelta((dir + 3) & 3);
+            int frontRight = straight + geometry.getDelta((dir + 1) & 3);
+            path[frontLeft >>> 6] |= 1L << frontLeft;
+            path[frontRight >>> 6] |= 1L << frontRight;
+            if (occupied[frontLeft]) {
+                dir = occupied[frontRight] ? (dir + 2) & 3 : (dir + 1) & 3;
+            } else if (occupied[frontRight]) {
+                dir = (dir + 3) & 3;
+            } else {
+                pos = straight;
+            }
+            int exit = geometry.getPortAt(pos);
+            if (exit >= 0) {
+                return exit;
+            }
+        }
+    }
+}
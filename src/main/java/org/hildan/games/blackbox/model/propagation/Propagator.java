@@ -1,136 +1,250 @@
 package org.hildan.games.blackbox.model.propagation;
 
-import org.hildan.games.blackbox.model.BallList;
-import org.hildan.games.blackbox.model.Grid;
+import java.util.Arrays;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
 import org.hildan.games.blackbox.model.Side;
-import org.hildan.games.blackbox.model.ports.Ports;
 import org.hildan.games.blackbox.model.ports.State;
 
+/**
+ * Traces rays through a grid of balls.
+ * <p>
+ * The grid is stored as a flat array of the padded cells of its {@link BoardGeometry}, where the
+ * ports are empty cells around the board. This way, a ray is simply a cell index and a
+ * {@link Direction}, and propagating it does not allocate anything.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
 public class Propagator {
 
-    public BallList balls;
+    /**
+     * The outcome of a ray that runs into a ball ({@link State#HIT}). Any other outcome is the
+     * number of the port the ray came out from.
+     */
+    public static final int HIT = -1;
+
+    private final BoardGeometry geometry;
+
+    private final boolean[] occupied;
+
+    /**
+     * The cells that may or may not contain a ball later, or {@code null} until a cell is marked
+     * undecided.
+     */
+    private boolean[] undecided;
+
+    /**
+     * The undecided cells the last partial ray depends on, in the order the ray reached them.
+     */
+    private int[] undecidedCells = new int[16];
+
+    private int nUndecidedCells;
+
+    /**
+     * Creates a new {@code Propagator} for the specified balls, in a board of the geometry of the
+     * balls.
+     *
+     * @param balls
+     *            The balls in the grid.
+     */
+    public Propagator(BallSet balls) {
+        geometry = balls.getGeometry();
+        occupied = new boolean[geometry.getPaddedWidth() * geometry.getPaddedWidth()];
+        setBalls(balls);
+    }
 
-    public Propagator(BallList balls) {
-        this.balls = balls;
+    /**
+     * Replaces the balls this {@code Propagator} works with. This allows to reuse the same
+     * {@code Propagator} for many grids.
+     *
+     * @param balls
+     *            The new balls in the grid, which must have the same geometry.
+     */
+    public void setBalls(BallSet balls) {
+        Arrays.fill(occupied, false);
+        for (int cell = balls.nextCell(0); cell >= 0; cell = balls.nextCell(cell + 1)) {
+            occupied[geometry.toPadded(cell)] = true;
+        }
     }
 
     /**
-     * Return whether there is a ball at the specified position. The position may be
-     * out of the grid bounds. In this case, {@code false} is returned.
-     * 
-     * @param pos
-     *            The position to check.
-     * @return {@code true} if a ball is at the specified position.
+     * Adds a ball in the specified cell.
+     *
+     * @param cell
+     *            The number of the cell, as defined by {@link BallSet}.
      */
-    public boolean isBall(Position pos) {
-        return balls.contains(pos.row, pos.col);
+    public void addBall(int cell) {
+        occupied[geometry.toPadded(cell)] = true;
+    }
+
+    /**
+     * Removes the ball from the specified cell.
+     *
+     * @param cell
+     *            The number of the cell, as defined by {@link BallSet}.
+     */
+    public void removeBall(int cell) {
+        occupied[geometry.toPadded(cell)] = false;
     }
 
     /**
      * Propagates a ray from the specified port.
-     * 
+     *
      * @param side
      *            The {@code Side} to shoot from.
      * @param index
      *            The index of the port within the specified {@code Side}.
-     * @return The number of the reached port, or {@code null} in case of a
-     *         {@link State#HIT}.
+     * @return The number of the reached port, or {@link #HIT}.
      */
-    public Integer propagateRay(Side side, int index) {
-        int port = Ports.getPortNum(side, index);
-        Position pos = Position.get(side, index);
-        return propagateRay(port, pos, side.getDirection());
+    public int propagateRay(Side side, int index) {
+        return propagateRay(geometry.getPortNum(side, index));
     }
 
     /**
-     * Propagates a ray in the specified {@link Direction}, from the specified
-     * position.
-     * 
+     * Propagates a ray from the specified port.
+     *
      * @param port
-     *            The entry port the ray has been shot from.
-     * @param pos
-     *            The current position of the ray.
-     * @param dir
-     *            The {@code Direction} to follow.
-     * @return The number of the reached port, or {@code null} in case of a
-     *         {@link State#HIT}.
+     *            The entry port the ray is shot from.
+     * @return The number of the reached port, or {@link #HIT}.
      */
-    public Integer propagateRay(int port, Position pos, Direction dir) {
-        Position straight = new Position(pos);
-        Position frontLeft = new Position(pos);
-        Position frontRight = new Position(pos);
-        straight.move(dir);
-        frontLeft.move(dir);
-        frontLeft.move(dir.turnLeft());
-        frontRight.move(dir);
-        frontRight.move(dir.turnRight());
-        // the ray hits
-        if (isBall(straight)) {
-            return null;
-        }
-        // the ray moves
-        Position next = pos;
-        Direction dirNext;
-        boolean ballFrontRight = isBall(frontRight);
-        boolean ballFrontLeft = isBall(frontLeft);
-        if (ballFrontLeft) {
-            if (ballFrontRight) {
-                // go back
-                dirNext = dir.opposite();
-            } else {
-                // turn right
-                dirNext = dir.turnRight();
+    public int propagateRay(int port) {
+        final BoardGeometry geometry = this.geometry;
+        int pos = geometry.getEntryCell(port);
+        int dir = geometry.getEntryDirection(port);
+        while (true) {
+            int straight = pos + geometry.getDelta(dir);
+            // the ray hits
+            if (occupied[straight]) {
+                return HIT;
             }
-        } else {
-            if (ballFrontRight) {
+            boolean ballFrontLeft = occupied[straight + geometry.getDelta((dir + 3) & 3)];
+            boolean ballFrontRight = occupied[straight + geometry.getDelta((dir + 1) & 3)];
+            if (ballFrontLeft) {
+                // go back, or turn right
+                dir = ballFrontRight ? (dir + 2) & 3 : (dir + 1) & 3;
+            } else if (ballFrontRight) {
                 // turn left
-                dirNext = dir.turnLeft();
+                dir = (dir + 3) & 3;
             } else {
                 // go straight
-                next = straight;
-                dirNext = dir;
+                pos = straight;
+            }
+            int exit = geometry.getPortAt(pos);
+            if (exit >= 0) {
+                // running into an edge
+                return exit;
             }
         }
-        if (isOnEdge(next)) {
-            // running into an edge
-            return getEntryPort(next);
-        }
-        return propagateRay(port, next, dirNext);
     }
 
     /**
-     * Returns whether the specified position in out of the grid, just on the edge.
-     * 
-     * @param pos
-     *            The position to check.
-     * @return {@code true} if the specified position in out of the grid, just on the
-     *         edge, {@code false} otherwise.
+     * Marks the specified cell as decided or not, for {@link #propagatePartialRay(int)}. An
+     * undecided cell must not contain a ball.
+     *
+     * @param cell
+     *            The number of the cell, as defined by {@link BallSet}.
+     * @param isUndecided
+     *            {@code true} if the cell may or may not contain a ball later.
      */
-    private static boolean isOnEdge(Position pos) {
-        return pos.row == -1 || pos.row == Grid.size || pos.col == -1 || pos.col == Grid.size;
+    public void setUndecided(int cell, boolean isUndecided) {
+        if (undecided == null) {
+            undecided = new boolean[occupied.length];
+        }
+        undecided[geometry.toPadded(cell)] = isUndecided;
     }
 
     /**
-     * Returns the number of the port located at the specified position. The
-     * specified position must verify {@link #isOnEdge(Position)}, an exception is
-     * thrown otherwise.
-     * 
-     * @param pos
-     *            The position of the port to get.
-     * @return The number of the port located at the specified position.
+     * Propagates a ray from the specified port, in a grid where some cells are not decided yet. The
+     * ray is traced as if the undecided cells were empty, and the undecided cells it depends on are
+     * recorded: if none of them gets a ball, the outcome is the returned one, otherwise the ray has
+     * to be traced again. A ray that runs into a ball does not depend on the cells beside that ball.
+     *
+     * @param port
+     *            The entry port the ray is shot from.
+     * @return The number of the reached port, or {@link #HIT}, if the undecided cells are empty.
+     * @see #getNbUndecidedCells()
      */
-    private static int getEntryPort(Position pos) {
-        if (pos.row == -1) {
-            return Ports.getPortNum(Side.TOP, pos.col);
-        } else if (pos.row == Grid.size) {
-            return Ports.getPortNum(Side.BOTTOM, pos.col);
-        } else if (pos.col == -1) {
-            return Ports.getPortNum(Side.LEFT, pos.row);
-        } else if (pos.col == Grid.size) {
-            return Ports.getPortNum(Side.RIGHT, pos.row);
-        } else {
-            throw new IllegalArgumentException("The specified position is not on an edge.");
+    public int propagatePartialRay(int port) {
+        nUndecidedCells = 0;
+        if (undecided == null) {
+            return propagateRay(port);
+        }
+        final BoardGeometry geometry = this.geometry;
+        int pos = geometry.getEntryCell(port);
+        int dir = geometry.getEntryDirection(port);
+        while (true) {
+            int straight = pos + geometry.getDelta(dir);
+            if (undecided[straight]) {
+                addUndecidedCell(straight);
+            } else if (occupied[straight]) {
+                return HIT;
+            }
+            int frontLeft = straight + geometry.getDelta((dir + 3) & 3);
+            int frontRight = straight + geometry.getDelta((dir + 1) & 3);
+            if (undecided[frontLeft]) {
+                addUndecidedCell(frontLeft);
+            }
+            if (undecided[frontRight]) {
+                addUndecidedCell(frontRight);
+            }
+            if (occupied[frontLeft]) {
+                dir = occupied[frontRight] ? (dir + 2) & 3 : (dir + 1) & 3;
+            } else if (occupied[frontRight]) {
+                dir = (dir + 3) & 3;
+            } else {
+                pos = straight;
+            }
+            int exit = geometry.getPortAt(pos);
+            if (exit >= 0) {
+                return exit;
+            }
+        }
+    }
+
+    private void addUndecidedCell(int padded) {
+        if (nUndecidedCells == undecidedCells.length) {
+            undecidedCells = Arrays.copyOf(undecidedCells, 2 * nUndecidedCells);
         }
+        undecidedCells[nUndecidedCells++] = geometry.getCellAt(padded);
     }
 
+    /**
+     * Returns the number of undecided cells the last ray traced by
+     * {@link #propagatePartialRay(int)} depends on.
+     *
+     * @return the number of undecided cells, 0 if the outcome of the ray is decided. A cell may be
+     *         counted several times.
+     */
+    public int getNbUndecidedCells() {
+        return nUndecidedCells;
+    }
+
+    /**
+     * Returns an undecided cell the last ray traced by {@link #propagatePartialRay(int)} depends
+     * on.
+     *
+     * @param k
+     *            The position of the cell, between 0 and {@link #getNbUndecidedCells()}
+     *            (exclusive), in the order the ray reached them.
+     * @return the number of the undecided cell, as defined by {@link BallSet}.
+     */
+    public int getUndecidedCell(int k) {
+        return undecidedCells[k];
+    }
+
+    /**
+     * Propagates a ray from each of the specified ports.
+     *
+     * @param ports
+     *            The entry ports to shoot from.
+     * @param outcomes
+     *            The array to store the outcomes into, at the same index as the corresponding
+     *            port.
+     */
+    public void propagateRays(int[] ports, int[] outcomes) {
+        for (int k = 0; k < ports.length; k++) {
+            outcomes[k] = propagateRay(ports[k]);
+        }
+    }
 }
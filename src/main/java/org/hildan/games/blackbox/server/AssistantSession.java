@@ -0,0 +1,122 @@
+package org.hildan.games.blackbox.server;
+
+import org.hildan.games.blackbox.ai.SolvingAssistant;
+import org.hildan.games.blackbox.ai.SolvingAssistantFactory;
+import org.hildan.games.blackbox.model.Ball;
+import org.hildan.games.blackbox.model.BoardGeometry;
+
+/**
+ * Help for an external game, the network counterpart of the console
+ * {@link org.hildan.games.blackbox.HumanAssistant}.
+ * <p>
+ * Commands:
+ * <ul>
+ * <li>{@code SUGGEST}: replies {@code OK <side> <index>} with the port to try next, or
+ * {@code OK SOLVED <nSolutions>} if the solution is known, up to alternatives that no shot can
+ * tell apart</li>
+ * <li>{@code RESULT <side> <index> HIT|REFLECT}, {@code RESULT <side> <index> DETOUR <side> <index>}:
+ * records the outcome of a shot, and replies {@code OK <nPossibilities> EXACT|ESTIMATE}</li>
+ * <li>{@code SOLUTION}: replies {@code OK <row>,<col> ...} with the balls of the solution, the
+ * first one if there are indistinguishable alternatives</li>
+ * </ul>
+ * The solver work is done in the compute pool, including the creation of the
+ * {@link SolvingAssistant}, which may generate the possible grids shared by all the assistants of
+ * the same board.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class AssistantSession extends Session {
+
+    private final int nBalls;
+
+    private final SolvingAssistantFactory assistants;
+
+    private SolvingAssistant helper;
+
+    /**
+     * Creates a new assistant. The solver itself is created by the first command.
+     *
+     * @param id
+     *            The identifier of the session.
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden balls.
+     * @param assistants
+     *            The factory to create the solver with.
+     */
+    AssistantSession(String id, BoardGeometry geometry, int nBalls, SolvingAssistantFactory assistants) {
+        super(id, geometry);
+        this.nBalls = nBalls;
+        this.assistants = assistants;
+    }
+
+    @Override
+    protected String handle(String command, String[] args, ComputePool compute)
+            throws InterruptedException {
+        switch (command) {
+        case "SUGGEST":
+            return compute.run(this::suggest);
+        case "RESULT":
+            int port = parsePort(args, 0);
+            String state = args.length > 2 ? args[2].toUpperCase() : "";
+            switch (state) {
+            case "HIT":
+                return compute.run(() -> {
+                    getHelper().setHit(port);
+                    return possibilities();
+                });
+            case "REFLECT":
+                return compute.run(() -> {
+                    getHelper().setReflect(port);
+                    return possibilities();
+                });
+            case "DETOUR":
+                int twin = parsePort(args, 3);
+                return compute.run(() -> {
+                    getHelper().setDetour(port, twin);
+                    return possibilities();
+                });
+            default:
+                throw new IllegalArgumentException("HIT, REFLECT or DETOUR expected");
+            }
+        case "SOLUTION":
+            return compute.run(this::solution);
+        default:
+            return "ERR Unknown assistant command: " + command;
+        }
+    }
+
+    private SolvingAssistant getHelper() {
+        if (helper == null) {
+            helper = assistants.newAssistant(geometry, nBalls);
+        }
+        return helper;
+    }
+
+    private String suggest() {
+        if (getHelper().isSolutionFound()) {
+            return "OK SOLVED " + helper.getNbPossibilities();
+        }
+        int port = helper.chooseEntryPort();
+        if (port < 0) {
+            return "ERR No port can tell the remaining grids apart";
+        }
+        return "OK " + formatPort(port);
+    }
+
+    private String possibilities() {
+        return "OK " + helper.getNbPossibilities() + (helper.isExhaustive() ? " EXACT" : " ESTIMATE");
+    }
+
+    private String solution() {
+        if (!getHelper().isSolutionFound()) {
+            return "ERR Not solved yet";
+        }
+        StringBuilder reply = new StringBuilder("OK");
+        for (Ball ball : helper.getSolution().getBalls()) {
+            reply.append(' ').append(ball.i).append(',').append(ball.j);
+        }
+        return reply.toString();
+    }
+}
@@ -0,0 +1,230 @@
+package org.hildan.games.blackbox.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hildan.games.blackbox.ai.SolvingAssistantFactory;
+
+/**
+ * A server hosting many games and assistants at the same time, for clients connecting to a local
+ * TCP port. The protocol is line-based: each command is a line of space-separated words, and gets
+ * exactly one reply line, starting with {@code OK} or {@code ERR}. The commands are described in
+ * {@link ClientConnection}, {@link GameSession} and {@link AssistantSession}.
+ * <p>
+ * Each connection has its own thread, which only parses the commands and writes the replies. These
+ * threads have small stacks, so that thousands of them fit in memory. The solver work is done in a
+ * bounded {@link ComputePool} shared by all the sessions, and the assistants of the same board size
+ * and number of balls share their possible grids.
+ * <p>
+ * Both the sessions and the connections are dropped after some idle time.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class BlackboxServer implements Closeable {
+
+    /**
+     * The port the server listens to if none is specified.
+     */
+    public static final int DEFAULT_PORT = 4242;
+
+    /**
+     * The maximum size of the grid, so that a {@code BallSet} key can represent the balls.
+     */
+    static final int MAX_SIZE = 15;
+
+    /**
+     * The stack size of the connection threads, which only run the protocol code.
+     */
+    private static final long CONNECTION_STACK_SIZE = 256 * 1024;
+
+    /**
+     * The number of solver tasks that may wait for each compute thread.
+     */
+    private static final int QUEUED_TASKS_PER_THREAD = 256;
+
+    /**
+     * Above this number of possible grids, the assistants do not share their grids.
+     */
+    private static final long MAX_SHARED_GRIDS = 4000000;
+
+    /**
+     * The maximum number of grids an assistant enumerates on its own.
+     */
+    private static final int MAX_SESSION_GRIDS = 100000;
+
+    private final int port;
+
+    private final int nComputeThreads;
+
+    private final int maxClients;
+
+    private final long idleTimeoutMillis;
+
+    private ServerSocket serverSocket;
+
+    private SessionStore sessions;
+
+    private ComputePool compute;
+
+    private SolvingAssistantFactory assistants;
+
+    private ExecutorService connections;
+
+    private ScheduledExecutorService evictor;
+
+    private Semaphore clientSlots;
+
+    private Thread acceptor;
+
+    /**
+     * Creates a new {@code BlackboxServer}. It does not listen until {@link #start()} is called.
+     *
+     * @param port
+     *            The local port to listen to, or 0 to use any free port.
+     * @param nComputeThreads
+     *            The number of solver tasks run at the same time.
+     * @param maxClients
+     *            The maximum number of connections, and the maximum number of sessions.
+     * @param idleTimeoutMillis
+     *            The time after which idle connections are closed, and idle sessions are deleted.
+     */
+    public BlackboxServer(int port, int nComputeThreads, int maxClients, long idleTimeoutMillis) {
+        this.port = port;
+        this.nComputeThreads = nComputeThreads;
+        this.maxClients = maxClients;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Starts listening to the port of this server, on the loopback address only.
+     *
+     * @throws IOException
+     *             if the port cannot be listened to.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, maxClients, InetAddress.getLoopbackAddress());
+        sessions = new SessionStore(maxClients);
+        compute = new ComputePool(nComputeThreads, nComputeThreads * QUEUED_TASKS_PER_THREAD);
+        assistants = new SolvingAssistantFactory(MAX_SHARED_GRIDS, MAX_SESSION_GRIDS);
+        clientSlots = new Semaphore(maxClients);
+        AtomicInteger count = new AtomicInteger();
+        connections = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(null, r, "blackbox-connection-" + count.incrementAndGet(),
+                    CONNECTION_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "blackbox-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 4);
+        evictor.scheduleAtFixedRate(
+                () -> sessions.evictIdle(System.currentTimeMillis() - idleTimeoutMillis), period, period,
+                TimeUnit.MILLISECONDS);
+        acceptor = new Thread(this::acceptClients, "blackbox-acceptor");
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port this server listens to.
+     *
+     * @return the local port of this server, which is only known after {@link #start()} when the
+     *         server was created with port 0.
+     */
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    /**
+     * Returns the number of sessions currently stored.
+     *
+     * @return the number of sessions currently stored.
+     */
+    public int getNbSessions() {
+        return sessions.size();
+    }
+
+    private void acceptClients() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // the server socket was closed
+                return;
+            }
+            if (!clientSlots.tryAcquire()) {
+                refuse(socket);
+                continue;
+            }
+            try {
+                socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, idleTimeoutMillis));
+                ClientConnection connection = new ClientConnection(socket, sessions, compute, assistants);
+                connections.execute(() -> {
+                    try {
+                        connection.run();
+                    } finally {
+                        clientSlots.release();
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                clientSlots.release();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static void refuse(Socket socket) {
+        try (OutputStream out = socket.getOutputStream()) {
+            out.write("ERR Too many clients, try again later\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // the client is gone anyway
+        }
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing more to do
+        }
+    }
+
+    /**
+     * Waits until this server is closed.
+     *
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting.
+     */
+    public void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stops listening, and drops all the connections and sessions.
+     */
+    @Override
+    public void close() {
+        if (serverSocket == null) {
+            return;
+        }
+        closeQuietly(serverSocket);
+        evictor.shutdownNow();
+        connections.shutdownNow();
+        compute.shutdown();
+    }
+}
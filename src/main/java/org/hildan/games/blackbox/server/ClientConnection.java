@@ -0,0 +1,202 @@
+package org.hildan.games.blackbox.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.hildan.games.blackbox.ai.SolvingAssistantFactory;
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+
+/**
+ * Reads the commands of a client, one per line, and writes one reply line per command.
+ * <p>
+ * The commands that do not belong to a session are handled here:
+ * <ul>
+ * <li>{@code NEW GAME <size> <nBalls>}, {@code NEW ASSIST <size> <nBalls>}: creates a session and
+ * attaches this connection to it, replies {@code OK <sessionId>}</li>
+ * <li>{@code ATTACH <sessionId>}: attaches this connection to an existing session</li>
+ * <li>{@code CLOSE}: deletes the attached session</li>
+ * <li>{@code PING}: replies {@code OK}, and keeps the attached session from being evicted</li>
+ * <li>{@code QUIT}: closes the connection, the session stays available to {@code ATTACH}</li>
+ * </ul>
+ * The other commands are passed to the attached {@link Session}. Once the attached session has been
+ * evicted, this connection is detached from it and its commands are rejected.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class ClientConnection implements Runnable {
+
+    private final Socket socket;
+
+    private final SessionStore sessions;
+
+    private final ComputePool compute;
+
+    private final SolvingAssistantFactory assistants;
+
+    private Session session;
+
+    /**
+     * Creates a new {@code ClientConnection}.
+     *
+     * @param socket
+     *            The socket of the client.
+     * @param sessions
+     *            The sessions to create or look up the session of the client in.
+     * @param compute
+     *            The pool to run the solver work in.
+     * @param assistants
+     *            The factory of the solvers of the assistant sessions.
+     */
+    ClientConnection(Socket socket, SessionStore sessions, ComputePool compute,
+            SolvingAssistantFactory assistants) {
+        this.socket = socket;
+        this.sessions = sessions;
+        this.compute = compute;
+        this.assistants = assistants;
+    }
+
+    @Override
+    public void run() {
+        try (Socket s = socket;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(
+                        new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = readLine(in)) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].isEmpty()) {
+                    continue;
+                }
+                String command = tokens[0].toUpperCase();
+                String[] args = Arrays.copyOfRange(tokens, 1, tokens.length);
+                if (command.equals("QUIT")) {
+                    reply(out, "OK Bye");
+                    break;
+                }
+                reply(out, execute(command, args));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the client is gone, its session remains until it is evicted
+        }
+    }
+
+    /**
+     * Reads the next command, or returns {@code null} if the client stayed silent for too long.
+     */
+    private static String readLine(BufferedReader in) throws IOException {
+        try {
+            return in.readLine();
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+        out.write(reply);
+        out.write('\n');
+        out.flush();
+    }
+
+    private String execute(String command, String[] args) throws InterruptedException {
+        try {
+            switch (command) {
+            case "PING":
+                if (detachIfEvicted()) {
+                    return "ERR Session expired, use NEW or ATTACH";
+                }
+                if (session != null) {
+                    session.touch();
+                }
+                return "OK";
+            case "NEW":
+                return create(args);
+            case "ATTACH":
+                return attach(args);
+            case "CLOSE":
+                if (session == null) {
+                    return "ERR No session";
+                }
+                sessions.remove(session);
+                session = null;
+                return "OK";
+            default:
+                if (detachIfEvicted()) {
+                    return "ERR Session expired, use NEW or ATTACH";
+                }
+                if (session == null) {
+                    return "ERR No session, use NEW or ATTACH first";
+                }
+                return session.execute(command, args, compute);
+            }
+        } catch (RejectedExecutionException e) {
+            return "ERR Server busy, try again later";
+        } catch (RuntimeException e) {
+            String message = e.getMessage();
+            return "ERR " + (message != null ? message : e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Detaches this connection from its session if the session is no longer in the store, so that
+     * an evicted session cannot be used outside of the bounds of the store.
+     *
+     * @return {@code true} if the attached session had been evicted.
+     */
+    private boolean detachIfEvicted() {
+        if (session == null || sessions.get(session.getId()) == session) {
+            return false;
+        }
+        session = null;
+        return true;
+    }
+
+    private String create(String[] args) {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("NEW GAME|ASSIST <size> <nBalls> expected");
+        }
+        int size = Session.parseInt(args[1], 2, BlackboxServer.MAX_SIZE);
+        BoardGeometry geometry = BoardGeometry.of(size);
+        int nBalls = Session.parseInt(args[2], 1, Math.min(size, BallSet.MAX_KEY_BALLS));
+        Session newSession;
+        switch (args[0].toUpperCase()) {
+        case "GAME":
+            newSession = new GameSession(sessions.newId(), geometry, nBalls);
+            break;
+        case "ASSIST":
+            newSession = new AssistantSession(sessions.newId(), geometry, nBalls, assistants);
+            break;
+        default:
+            throw new IllegalArgumentException("GAME or ASSIST expected");
+        }
+        if (!sessions.add(newSession)) {
+            return "ERR Too many sessions, try again later";
+        }
+        session = newSession;
+        return "OK " + session.getId();
+    }
+
+    private String attach(String[] args) {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Session identifier expected");
+        }
+        Session existing = sessions.get(args[0]);
+        if (existing == null) {
+            return "ERR Unknown session, it may have expired";
+        }
+        session = existing;
+        return "OK " + session.getId();
+    }
+}
@@ -0,0 +1,81 @@
+package org.hildan.games.blackbox.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads for the solver work of all the sessions.
+ * <p>
+ * The tasks never do any I/O, the replies are written by the threads of the connections. This way,
+ * a slow client can only hold its own connection thread, never a compute thread. When the queue of
+ * the pool is full, new tasks are rejected instead of piling up.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class ComputePool {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a new {@code ComputePool}.
+     *
+     * @param nThreads
+     *            The number of tasks run at the same time.
+     * @param maxQueuedTasks
+     *            The number of tasks that may wait for a thread before new tasks are rejected.
+     */
+    ComputePool(int nThreads, int maxQueuedTasks) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "blackbox-compute-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedTasks), factory);
+    }
+
+    /**
+     * Runs the specified task in this pool, and waits for its result.
+     *
+     * @param task
+     *            The task to run.
+     * @return the result of the task.
+     * @throws RejectedExecutionException
+     *             if too many tasks are already waiting.
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting. The task is then cancelled.
+     */
+    <T> T run(Callable<T> task) throws InterruptedException {
+        Future<T> future = executor.submit(task);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Stops the threads of this pool, interrupting the running tasks.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,79 @@
+package org.hildan.games.blackbox.server;
+
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.GuessableGrid;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+
+/**
+ * A game against a random hidden grid, the network counterpart of the console
+ * {@link org.hildan.games.blackbox.Game}.
+ * <p>
+ * Commands:
+ * <ul>
+ * <li>{@code SHOOT <side> <index>}: replies {@code OK HIT}, {@code OK REFLECT} or
+ * {@code OK DETOUR <side> <index>}</li>
+ * <li>{@code GUESS <row> <col>}: places a guess</li>
+ * <li>{@code UNGUESS <row> <col>}: removes a guess</li>
+ * <li>{@code CHECK}: replies {@code OK WIN} if the guesses are exactly the hidden balls,
+ * {@code OK LOSE} otherwise</li>
+ * </ul>
+ * These commands are cheap, and are executed directly by the thread of the connection.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class GameSession extends Session {
+
+    private final GuessableGrid grid;
+
+    /**
+     * Creates a new game with a random grid.
+     *
+     * @param id
+     *            The identifier of the session.
+     * @param geometry
+     *            The geometry of the board.
+     * @param nBalls
+     *            The number of hidden balls.
+     */
+    GameSession(String id, BoardGeometry geometry, int nBalls) {
+        super(id, geometry);
+        this.grid = new GuessableGrid(geometry, nBalls);
+    }
+
+    @Override
+    protected String handle(String command, String[] args, ComputePool compute) {
+        switch (command) {
+        case "SHOOT":
+            int port = parsePort(args, 0);
+            int outcome = grid.shoot(port);
+            if (outcome == Propagator.HIT) {
+                return "OK HIT";
+            } else if (outcome == port) {
+                return "OK REFLECT";
+            } else {
+                return "OK DETOUR " + formatPort(outcome);
+            }
+        case "GUESS":
+            grid.placeGuess(parseRow(args), parseCol(args));
+            return "OK";
+        case "UNGUESS":
+            grid.removeGuess(parseRow(args), parseCol(args));
+            return "OK";
+        case "CHECK":
+            return grid.amIRight() ? "OK WIN" : "OK LOSE";
+        default:
+            return "ERR Unknown game command: " + command;
+        }
+    }
+
+    private int parseRow(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Row and column expected");
+        }
+        return parseInt(args[0], 0, geometry.getSize() - 1);
+    }
+
+    private int parseCol(String[] args) {
+        return parseInt(args[1], 0, geometry.getSize() - 1);
+    }
+}
@@ -0,0 +1,155 @@
+package org.hildan.games.blackbox.server;
+
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.Side;
+
+/**
+ * The state of a game or of an assistant, kept by the server between the commands of a client.
+ * <p>
+ * A session is not bound to a connection: a client may attach to it again after a disconnection,
+ * until it is evicted for being idle. The commands of a session are executed one at a time, even
+ * if several connections are attached to it.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+abstract class Session {
+
+    private final String id;
+
+    protected final BoardGeometry geometry;
+
+    private volatile long lastAccess;
+
+    private volatile boolean busy;
+
+    /**
+     * Creates a new {@code Session}.
+     *
+     * @param id
+     *            The identifier the clients use to attach to this session.
+     * @param geometry
+     *            The geometry of the board of this session.
+     */
+    Session(String id, BoardGeometry geometry) {
+        this.id = id;
+        this.geometry = geometry;
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Returns whether this session has been idle since the specified time. A session executing a
+     * command is never idle, however long the command takes.
+     *
+     * @param time
+     *            A time in milliseconds, as given by {@link System#currentTimeMillis()}.
+     * @return {@code true} if no command was executed since {@code time}.
+     */
+    boolean isIdleSince(long time) {
+        return !busy && lastAccess < time;
+    }
+
+    /**
+     * Marks this session as accessed now, without executing any command, so that it is not evicted.
+     */
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Executes a command of this session.
+     *
+     * @param command
+     *            The upper-case name of the command.
+     * @param args
+     *            The arguments of the command.
+     * @param compute
+     *            The pool to run the CPU-heavy work in.
+     * @return the reply to send to the client, starting with {@code OK} or {@code ERR}.
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting for the compute pool.
+     */
+    final synchronized String execute(String command, String[] args, ComputePool compute)
+            throws InterruptedException {
+        busy = true;
+        try {
+            return handle(command, args, compute);
+        } finally {
+            lastAccess = System.currentTimeMillis();
+            busy = false;
+        }
+    }
+
+    /**
+     * Executes a command specific to this kind of session.
+     *
+     * @see #execute(String, String[], ComputePool)
+     */
+    protected abstract String handle(String command, String[] args, ComputePool compute)
+            throws InterruptedException;
+
+    /**
+     * Parses the port described by two arguments, a {@link Side} and an index.
+     *
+     * @param args
+     *            The arguments of a command.
+     * @param from
+     *            The position of the side in {@code args}.
+     * @return the number of the port.
+     * @throws IllegalArgumentException
+     *             if the arguments do not describe a port of this board.
+     */
+    protected int parsePort(String[] args, int from) {
+        if (args.length < from + 2) {
+            throw new IllegalArgumentException("Side and index expected");
+        }
+        Side side;
+        try {
+            side = Side.valueOf(args[from].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("TOP, BOTTOM, LEFT or RIGHT expected");
+        }
+        int index = parseInt(args[from + 1], 0, geometry.getSize() - 1);
+        return geometry.getPortNum(side, index);
+    }
+
+    /**
+     * Returns the description of a port, as parsed by {@link #parsePort(String[], int)}.
+     *
+     * @param port
+     *            The number of the port.
+     * @return the side and the index of the port, separated by a space.
+     */
+    protected String formatPort(int port) {
+        return geometry.getSide(port) + " " + geometry.getIndex(port);
+    }
+
+    /**
+     * Parses an integer argument.
+     *
+     * @param arg
+     *            The argument to parse.
+     * @param min
+     *            The minimum accepted value.
+     * @param max
+     *            The maximum accepted value.
+     * @return the parsed value.
+     * @throws IllegalArgumentException
+     *             if the argument is not an integer between {@code min} and {@code max}.
+     */
+    static int parseInt(String arg, int min, int max) {
+        int value;
+        try {
+            value = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Integer expected: " + arg);
+        }
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Value between " + min + " and " + max + " expected");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,109 @@
+package org.hildan.games.blackbox.server;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The sessions of all the clients, indexed by their identifier.
+ * <p>
+ * The number of sessions is bounded, as an assistant may hold millions of possible grids. The
+ * sessions that stay idle too long are evicted by {@link #evictIdle(long)}, which the server calls
+ * periodically.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+class SessionStore {
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final int maxSessions;
+
+    /**
+     * Creates a new empty {@code SessionStore}.
+     *
+     * @param maxSessions
+     *            The maximum number of sessions stored at the same time.
+     */
+    SessionStore(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Returns a new unique session identifier.
+     *
+     * @return a new identifier, hard to guess for the other clients.
+     */
+    String newId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Adds the specified session to this store.
+     *
+     * @param session
+     *            The session to add.
+     * @return {@code false} if the store is full, in which case the session is not added.
+     */
+    boolean add(Session session) {
+        if (count.incrementAndGet() > maxSessions) {
+            count.decrementAndGet();
+            return false;
+        }
+        sessions.put(session.getId(), session);
+        return true;
+    }
+
+    /**
+     * Returns the session with the specified identifier.
+     *
+     * @param id
+     *            The identifier of the session.
+     * @return the session, or {@code null} if there is none, or if it has been evicted.
+     */
+    Session get(String id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * Removes the specified session from this store.
+     *
+     * @param session
+     *            The session to remove.
+     */
+    void remove(Session session) {
+        if (sessions.remove(session.getId(), session)) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the sessions that have been idle since the specified time.
+     *
+     * @param time
+     *            A time in milliseconds, as given by {@link System#currentTimeMillis()}.
+     * @return the number of evicted sessions.
+     */
+    int evictIdle(long time) {
+        int nEvicted = 0;
+        for (Session session : sessions.values()) {
+            if (session.isIdleSince(time) && sessions.remove(session.getId(), session)) {
+                count.decrementAndGet();
+                nEvicted++;
+            }
+        }
+        return nEvicted;
+    }
+
+    /**
+     * Returns the number of sessions in this store.
+     *
+     * @return the number of sessions in this store.
+     */
+    int size() {
+        return sessions.size();
+    }
+}
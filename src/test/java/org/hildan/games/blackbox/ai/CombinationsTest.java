@@ -0,0 +1,124 @@
+package org.hildan.games.blackbox.ai;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Combinations} against the definition of the combinatorial number system, on small
+ * sets where every combination can be checked.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class CombinationsTest {
+
+    private static final int MAX_N = 9;
+
+    @Test
+    public void countIsBinomial() {
+        assertEquals(1, new Combinations(0, 0).count());
+        assertEquals(1, new Combinations(5, 0).count());
+        assertEquals(1, new Combinations(5, 5).count());
+        assertEquals(10, new Combinations(5, 2).count());
+        assertEquals(75287520, new Combinations(100, 5).count());
+    }
+
+    @Test
+    public void unrankIsInverseOfRank() {
+        for (int n = 0; n <= MAX_N; n++) {
+            for (int k = 0; k <= n; k++) {
+                Combinations combinations = new Combinations(n, k);
+                int[] combination = new int[k];
+                for (long rank = 0; rank < combinations.count(); rank++) {
+                    combinations.unrank(rank, combination);
+                    assertIncreasing(n, combination);
+                    assertEquals("C(" + n + ", " + k + ")", rank, combinations.rank(combination));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nextFollowsRanks() {
+        for (int n = 0; n <= MAX_N; n++) {
+            for (int k = 0; k <= n; k++) {
+                Combinations combinations = new Combinations(n, k);
+                int[] combination = new int[k];
+                int[] expected = new int[k];
+                combinations.unrank(0, combination);
+                for (long rank = 1; rank < combinations.count(); rank++) {
+                    assertTrue(combinations.next(combination));
+                    combinations.unrank(rank, expected);
+                    assertArrayEquals("C(" + n + ", " + k + ") rank " + rank, expected, combination);
+                }
+                assertFalse(combinations.next(combination));
+            }
+        }
+    }
+
+    @Test
+    public void revolvingDoorVisitsEachCombinationOnce() {
+        for (int n = 0; n <= MAX_N; n++) {
+            for (int k = 0; k <= n; k++) {
+                Combinations combinations = new Combinations(n, k);
+                Set<Long> visited = new HashSet<>();
+                int[] combination = new int[k];
+                int[] expected = new int[k];
+                combinations.unrankRevolvingDoor(0, combination);
+                long rank = 0;
+                do {
+                    String name = "C(" + n + ", " + k + ") rank " + rank;
+                    assertIncreasing(n, combination);
+                    combinations.unrankRevolvingDoor(rank, expected);
+                    assertArrayEquals(name, expected, combination);
+                    assertTrue(name + " visited twice", visited.add(combinations.rank(combination)));
+                    rank++;
+                } while (combinations.nextRevolvingDoor(combination));
+                assertEquals("C(" + n + ", " + k + ")", combinations.count(), visited.size());
+            }
+        }
+    }
+
+    @Test
+    public void revolvingDoorReplacesOneElement() {
+        for (int n = 1; n <= MAX_N; n++) {
+            for (int k = 1; k < n; k++) {
+                Combinations combinations = new Combinations(n, k);
+                int[] combination = new int[k];
+                combinations.unrankRevolvingDoor(0, combination);
+                long previous = toBits(combination);
+                while (combinations.nextRevolvingDoor(combination)) {
+                    long current = toBits(combination);
+                    assertEquals("C(" + n + ", " + k + ")", 2, Long.bitCount(previous ^ current));
+                    previous = current;
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unrankRejectsRankOutOfBounds() {
+        new Combinations(5, 2).unrank(10, new int[2]);
+    }
+
+    private static long toBits(int[] combination) {
+        long bits = 0;
+        for (int c : combination) {
+            bits |= 1L << c;
+        }
+        return bits;
+    }
+
+    static void assertIncreasing(int n, int[] combination) {
+        for (int i = 0; i < combination.length; i++) {
+            assertTrue(combination[i] >= (i == 0 ? 0 : combination[i - 1] + 1));
+            assertTrue(combination[i] < n);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.hildan.games.blackbox.ai;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.hildan.games.blackbox.model.propagation.Propagator;
+import org.junit.Test;
+
+/**
+ * Tests that filtering grids through an {@link OutcomeIndex} keeps the same grids as a linear scan
+ * of the outcomes.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class OutcomeIndexTest {
+
+    private static final int N_PORTS = 12;
+
+    @Test
+    public void retainMatchesLinearScan() {
+        Random random = new Random(42);
+        for (int nGrids : new int[] { 1, 63, 64, 65, 1000, 5000 }) {
+            byte[][] outcomes = randomOutcomes(nGrids, random);
+            OutcomeIndex index = new OutcomeIndex(outcomes, nGrids);
+            for (int trial = 0; trial < 20; trial++) {
+                long[] survivors = all(nGrids);
+                boolean[] expected = new boolean[nGrids];
+                Arrays.fill(expected, true);
+                for (int shot = 0; shot < 4; shot++) {
+                    int port = random.nextInt(N_PORTS);
+                    int outcome = outcomes[port][random.nextInt(nGrids)];
+                    index.retain(port, outcome, survivors);
+                    for (int g = 0; g < nGrids; g++) {
+                        expected[g] &= outcomes[port][g] == outcome;
+                    }
+                    assertArrayEquals(nGrids + " grids, shot " + shot, toBitmap(expected), survivors);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void retainUnseenOutcomeKeepsNothing() {
+        byte[][] outcomes = new byte[N_PORTS][100];
+        OutcomeIndex index = new OutcomeIndex(outcomes, 100);
+        long[] survivors = all(100);
+        index.retain(3, Propagator.HIT, survivors);
+        assertEquals(0, OutcomeIndex.cardinality(survivors));
+    }
+
+    @Test
+    public void cardinalityCountsBits() {
+        assertEquals(0, OutcomeIndex.cardinality(new long[0]));
+        assertEquals(1000, OutcomeIndex.cardinality(all(1000)));
+        assertEquals(16, OutcomeIndex.getNbWords(1000));
+    }
+
+    /**
+     * Most grids show the same few outcomes, so that both dense and sparse outcomes are indexed.
+     */
+    private static byte[][] randomOutcomes(int nGrids, Random random) {
+        byte[][] outcomes = new byte[N_PORTS][nGrids];
+        for (int port = 0; port < N_PORTS; port++) {
+            for (int g = 0; g < nGrids; g++) {
+                boolean common = random.nextInt(10) > 0;
+                int outcome = common ? Propagator.HIT + random.nextInt(2) : random.nextInt(N_PORTS);
+                outcomes[port][g] = (byte) outcome;
+            }
+        }
+        return outcomes;
+    }
+
+    private static long[] all(int nGrids) {
+        long[] grids = new long[OutcomeIndex.getNbWords(nGrids)];
+        for (int g = 0; g < nGrids; g++) {
+            grids[g >>> 6] |= 1L << g;
+        }
+        return grids;
+    }
+
+    private static long[] toBitmap(boolean[] grids) {
+        long[] bitmap = new long[OutcomeIndex.getNbWords(grids.length)];
+        for (int g = 0; g < grids.length; g++) {
+            if (grids[g]) {
+                bitmap[g >>> 6] |= 1L << g;
+            }
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,135 @@
+package org.hildan.games.blackbox.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.Grid;
+import org.hildan.games.blackbox.model.ports.Ports;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+import org.junit.Test;
+
+/**
+ * Tests the grouping of the possible grids into classes of grids that show the same outcome from
+ * every port, against the signatures of the grids traced one by one.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class PossibleGridListTest {
+
+    @Test
+    public void classesMatchSignatures() {
+        for (int size = 2; size <= 5; size++) {
+            BoardGeometry geometry = BoardGeometry.of(size);
+            for (int nBalls = 1; nBalls <= Math.min(size, 4); nBalls++) {
+                long[] keys = allKeys(geometry, nBalls);
+                PossibleGridList grids = new PossibleGridList(geometry, nBalls, keys, SolverListener.NONE);
+                assertClassesMatchSignatures(size + "x" + size + ", " + nBalls + " balls", grids, keys);
+            }
+        }
+    }
+
+    @Test
+    public void classesWithSameHashAreKeptApart() {
+        BoardGeometry geometry = BoardGeometry.of(7);
+        // two grids whose signatures differ but have the same hash, found by a search
+        long[] keys = { 386598919L, 706155276L };
+        PossibleGridList grids = new PossibleGridList(geometry, 4, keys, SolverListener.NONE);
+        assertClassesMatchSignatures("colliding hashes", grids, keys);
+    }
+
+    @Test
+    public void classesMatchSignaturesAfterFiltering() {
+        BoardGeometry geometry = BoardGeometry.of(5);
+        int nBalls = 4;
+        Grid secret = new Grid(BallSet.fromKey(geometry, allKeys(geometry, nBalls)[1234]));
+        Ports observations = new Ports(geometry);
+        PossibleGridList universe = new PossibleGridList(geometry, nBalls, SolverListener.NONE);
+        PossibleGridList grids = new PossibleGridList(universe, SolverListener.NONE);
+        for (int port : new int[] { 0, 7, 13, 18 }) {
+            observations.setOutcome(port, secret.shoot(port));
+            grids.removeInconsistentGrids(port, observations);
+            assertTrue(grids.isExpanded());
+            List<Long> consistent = new ArrayList<>();
+            for (long key : allKeys(geometry, nBalls)) {
+                if (isConsistent(BallSet.fromKey(geometry, key), observations)) {
+                    consistent.add(key);
+                }
+            }
+            long[] keys = consistent.stream().mapToLong(Long::longValue).toArray();
+            assertClassesMatchSignatures("after port " + port, grids, keys);
+        }
+    }
+
+    /**
+     * Checks that the classes of the specified list are the groups of the specified grids that
+     * share their signature, each class weighing its number of grids.
+     */
+    private static void assertClassesMatchSignatures(String name, PossibleGridList grids, long[] keys) {
+        BoardGeometry geometry = grids.getGeometry();
+        Map<String, List<Long>> groups = new HashMap<>();
+        for (long key : keys) {
+            groups.computeIfAbsent(getSignature(BallSet.fromKey(geometry, key)), s -> new ArrayList<>())
+                    .add(key);
+        }
+        assertEquals(name, keys.length, grids.size());
+        assertEquals(name, groups.size(), grids.getNbClasses());
+
+        int index = 0;
+        for (int id : grids.getClassIds()) {
+            StringBuilder classSignature = new StringBuilder();
+            for (int port = 0; port < geometry.getNbPorts(); port++) {
+                classSignature.append(grids.getOutcome(id, port)).append(' ');
+            }
+            List<Long> group = groups.remove(classSignature.toString());
+            assertTrue(name + ", class " + id + " has no grid or is split", group != null);
+            assertEquals(name + ", class " + id, group.size(), grids.getWeight(id));
+            long[] classKeys = new long[group.size()];
+            for (int k = 0; k < classKeys.length; k++) {
+                classKeys[k] = grids.getGrid(index++).getBalls().toKey();
+            }
+            long[] expectedKeys = group.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(classKeys);
+            Arrays.sort(expectedKeys);
+            assertTrue(name + ", class " + id, Arrays.equals(expectedKeys, classKeys));
+        }
+        assertTrue(name + ", missing classes " + groups.keySet(), groups.isEmpty());
+    }
+
+    private static String getSignature(BallSet balls) {
+        Propagator propagator = new Propagator(balls);
+        StringBuilder signature = new StringBuilder();
+        for (int port = 0; port < balls.getGeometry().getNbPorts(); port++) {
+            signature.append(propagator.propagateRay(port)).append(' ');
+        }
+        return signature.toString();
+    }
+
+    private static boolean isConsistent(BallSet balls, Ports observations) {
+        Propagator propagator = new Propagator(balls);
+        for (int port = 0; port < balls.getGeometry().getNbPorts(); port++) {
+            if (!observations.isConsistent(port, propagator.propagateRay(port))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] allKeys(BoardGeometry geometry, int nBalls) {
+        Combinations combinations = new Combinations(geometry.getNbCells(), nBalls);
+        long[] keys = new long[(int) combinations.count()];
+        int[] cells = new int[nBalls];
+        combinations.unrank(0, cells);
+        for (int g = 0; g < keys.length; g++, combinations.next(cells)) {
+            keys[g] = BallSet.toKey(cells);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,129 @@
+package org.hildan.games.blackbox.ai;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.ports.Ports;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+import org.junit.Test;
+
+/**
+ * Tests the {@link Symmetry}s of the board, and the possible grids stored as one canonical grid per
+ * orbit, against the brute-force list of all the grids.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class SymmetryTest {
+
+    @Test
+    public void imageOfRayIsRayOfImage() {
+        Random random = new Random(42);
+        for (int size = 2; size <= 7; size++) {
+            BoardGeometry geometry = BoardGeometry.of(size);
+            Symmetry symmetry = new Symmetry(geometry);
+            for (int trial = 0; trial < 20; trial++) {
+                BallSet balls = BallSet.random(geometry, 1 + random.nextInt(size), random);
+                Propagator propagator = new Propagator(balls);
+                for (int g = 0; g < Symmetry.COUNT; g++) {
+                    BallSet image = new BallSet(geometry);
+                    for (int cell = balls.nextCell(0); cell >= 0; cell = balls.nextCell(cell + 1)) {
+                        image.addCell(symmetry.getCell(g, cell));
+                    }
+                    Propagator imagePropagator = new Propagator(image);
+                    for (int port = 0; port < geometry.getNbPorts(); port++) {
+                        int expected = symmetry.getOutcome(g, propagator.propagateRay(port));
+                        assertEquals(imagePropagator.propagateRay(symmetry.getPort(g, port)), expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void inverseGivesBackPorts() {
+        Symmetry symmetry = new Symmetry(BoardGeometry.of(5));
+        for (int g = 0; g < Symmetry.COUNT; g++) {
+            for (int port = 0; port < 20; port++) {
+                assertEquals(port, symmetry.getPort(symmetry.inverse(g), symmetry.getPort(g, port)));
+            }
+        }
+    }
+
+    @Test
+    public void canonicalHistogramsMatchBruteForce() {
+        for (int size = 2; size <= 5; size++) {
+            BoardGeometry geometry = BoardGeometry.of(size);
+            for (int nBalls = 1; nBalls <= Math.min(size, 3); nBalls++) {
+                PossibleGridList canonical = new PossibleGridList(geometry, nBalls, SolverListener.NONE);
+                PossibleGridList all = bruteForce(geometry, nBalls);
+                assertEquals(all.size(), canonical.size());
+                assertSameHistograms(size + "x" + size + ", " + nBalls + " balls", all, canonical);
+            }
+        }
+    }
+
+    @Test
+    public void expandMatchesBruteForce() {
+        for (int size = 3; size <= 5; size++) {
+            BoardGeometry geometry = BoardGeometry.of(size);
+            int nBalls = 3;
+            PossibleGridList universe = new PossibleGridList(geometry, nBalls, SolverListener.NONE);
+            int[] histogram = new int[geometry.getNbPorts() + 1];
+            for (int port = 0; port < geometry.getNbPorts(); port++) {
+                universe.fillHistogram(port, histogram);
+                for (int o = 0; o < histogram.length; o++) {
+                    if (histogram[o] == 0) {
+                        continue;
+                    }
+                    Ports observations = new Ports(geometry);
+                    observations.setOutcome(port, o + Propagator.HIT);
+                    PossibleGridList canonical = new PossibleGridList(universe, SolverListener.NONE);
+                    canonical.removeInconsistentGrids(port, observations);
+                    PossibleGridList all = bruteForce(geometry, nBalls);
+                    all.removeInconsistentGrids(port, observations);
+                    String name = size + "x" + size + ", port " + port + ", outcome " + (o + Propagator.HIT);
+                    assertEquals(name, histogram[o], canonical.size());
+                    assertArrayEquals(name, getKeys(all), getKeys(canonical));
+                    assertSameHistograms(name, all, canonical);
+                }
+            }
+        }
+    }
+
+    private static PossibleGridList bruteForce(BoardGeometry geometry, int nBalls) {
+        Combinations combinations = new Combinations(geometry.getNbCells(), nBalls);
+        long[] keys = new long[(int) combinations.count()];
+        int[] cells = new int[nBalls];
+        combinations.unrank(0, cells);
+        for (int g = 0; g < keys.length; g++, combinations.next(cells)) {
+            keys[g] = BallSet.toKey(cells);
+        }
+        return new PossibleGridList(geometry, nBalls, keys, SolverListener.NONE);
+    }
+
+    private static void assertSameHistograms(String name, PossibleGridList expected,
+            PossibleGridList actual) {
+        int nPorts = expected.getGeometry().getNbPorts();
+        int[] expectedHistogram = new int[nPorts + 1];
+        int[] actualHistogram = new int[nPorts + 1];
+        for (int port = 0; port < nPorts; port++) {
+            expected.fillHistogram(port, expectedHistogram);
+            actual.fillHistogram(port, actualHistogram);
+            assertArrayEquals(name + ", port " + port, expectedHistogram, actualHistogram);
+        }
+    }
+
+    private static long[] getKeys(PossibleGridList grids) {
+        long[] keys = new long[grids.size()];
+        for (int g = 0; g < keys.length; g++) {
+            keys[g] = grids.getGrid(g).getBalls().toKey();
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,131 @@
+package org.hildan.games.blackbox.model.ports;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.hildan.games.blackbox.model.propagation.Propagator;
+import org.junit.Test;
+
+/**
+ * Tests that {@link Ports#rollback(int)} restores the outcomes and the detour numbers as they were
+ * at the matching {@link Ports#mark()}.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class PortsTest {
+
+    private static final BoardGeometry GEOMETRY = BoardGeometry.of(5);
+
+    @Test
+    public void resetRenumbersFollowingDetours() {
+        Ports ports = new Ports(GEOMETRY);
+        ports.setDetour(0, 5);
+        ports.setDetour(1, 6);
+        ports.setDetour(2, 7);
+        ports.resetState(5);
+        assertEquals(State.UNKNOWN, ports.getState(0));
+        assertEquals("0", ports.getStateString(1));
+        assertEquals("0", ports.getStateString(6));
+        assertEquals("1", ports.getStateString(7));
+        ports.setDetour(3, 8);
+        assertEquals("2", ports.getStateString(3));
+    }
+
+    @Test
+    public void rollbackRestoresNestedDetourResets() {
+        Ports ports = new Ports(GEOMETRY);
+        ports.setDetour(0, 5);
+        ports.setDetour(1, 6);
+        ports.setDetour(2, 7);
+        ports.setHit(3);
+        ports.setReflect(4);
+        String initial = snapshot(ports);
+
+        int outer = ports.mark();
+        // resets the first detour, the others are renumbered
+        ports.setHit(5);
+        String afterHit = snapshot(ports);
+
+        int inner = ports.mark();
+        // replaces a renumbered detour, and turns a detour and a hit into reflections
+        ports.setDetour(6, 10);
+        ports.setReflect(2);
+        ports.setReflect(3);
+        ports.resetState(4);
+        ports.rollback(inner);
+        assertEquals(afterHit, snapshot(ports));
+
+        ports.rollback(outer);
+        assertEquals(initial, snapshot(ports));
+        // the number of detours is restored as well
+        ports.setDetour(8, 9);
+        assertEquals("3", ports.getStateString(8));
+    }
+
+    @Test
+    public void rollbackRestoresRandomChanges() {
+        Random random = new Random(42);
+        int nPorts = GEOMETRY.getNbPorts();
+        Ports ports = new Ports(GEOMETRY);
+        Deque<Integer> marks = new ArrayDeque<>();
+        Deque<String> snapshots = new ArrayDeque<>();
+        for (int step = 0; step < 10000; step++) {
+            int action = random.nextInt(10);
+            if (action == 0 && marks.size() < 5) {
+                snapshots.push(snapshot(ports));
+                marks.push(ports.mark());
+            } else if (action == 1 && !marks.isEmpty()) {
+                ports.rollback(marks.pop());
+                assertEquals("step " + step, snapshots.pop(), snapshot(ports));
+            } else if (action == 2) {
+                ports.resetState(random.nextInt(nPorts));
+            } else {
+                int port = random.nextInt(nPorts);
+                ports.setOutcome(port, Propagator.HIT + random.nextInt(nPorts + 1));
+            }
+            assertContiguousDetours(ports);
+        }
+        while (!marks.isEmpty()) {
+            ports.rollback(marks.pop());
+            assertEquals(snapshots.pop(), snapshot(ports));
+        }
+    }
+
+    /**
+     * Returns the outcome and the displayed state of every port.
+     */
+    private static String snapshot(Ports ports) {
+        StringBuilder sb = new StringBuilder();
+        for (int port = 0; port < GEOMETRY.getNbPorts(); port++) {
+            sb.append(ports.isKnown(port) ? ports.getOutcome(port) : "?");
+            sb.append('/').append(ports.getStateString(port)).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks that the detours are numbered from 0, without gaps, both ports of a detour sharing its
+     * number.
+     */
+    private static void assertContiguousDetours(Ports ports) {
+        int nPorts = GEOMETRY.getNbPorts();
+        int[] counts = new int[nPorts];
+        int nDetourPorts = 0;
+        for (int port = 0; port < nPorts; port++) {
+            if (ports.getState(port) == State.DETOUR) {
+                int twin = ports.getOutcome(port);
+                assertEquals(port, ports.getOutcome(twin));
+                assertEquals(ports.getStateString(twin), ports.getStateString(port));
+                counts[Integer.parseInt(ports.getStateString(port))]++;
+                nDetourPorts++;
+            }
+        }
+        for (int number = 0; number < nDetourPorts / 2; number++) {
+            assertEquals("detour " + number, 2, counts[number]);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.hildan.games.blackbox.model.propagation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hildan.games.blackbox.model.BallSet;
+import org.hildan.games.blackbox.model.BoardGeometry;
+import org.junit.Test;
+
+/**
+ * Tests that {@link IncrementalPropagator} gives the same outcomes as {@link Propagator}, which
+ * traces every ray from scratch.
+ *
+ * @author <a href="mailto:joffrey.bion@gmail.com">Joffrey Bion</a>
+ */
+public class IncrementalPropagatorTest {
+
+    @Test
+    public void revolvingDoorWalkMatchesPropagator() {
+        for (int size = 2; size <= 6; size++) {
+            BoardGeometry geometry = BoardGeometry.of(size);
+            for (int nBalls = 1; nBalls <= Math.min(size, 3); nBalls++) {
+                assertWalkMatches(geometry, revolvingDoor(geometry.getNbCells(), nBalls));
+            }
+        }
+    }
+
+    @Test
+    public void severalChangesBetweenCallsMatchPropagator() {
+        BoardGeometry geometry = BoardGeometry.of(5);
+        IncrementalPropagator incremental = new IncrementalPropagator(geometry);
+        BallSet balls = new BallSet(geometry);
+        int[][] steps = { { 6, 12, 18 }, { 6, 7 }, { 12, 0, 24 }, { 7, 7 }, { 0, 18, 24, 4 } };
+        for (int[] step : steps) {
+            // each listed cell is toggled
+            for (int cell : step) {
+                if (balls.containsCell(cell)) {
+                    balls.remove(balls.getRow(cell), balls.getCol(cell));
+                    incremental.removeBall(cell);
+                } else {
+                    balls.addCell(cell);
+                    incremental.addBall(cell);
+                }
+            }
+            assertSameOutcomes(balls, incremental.getOutcomes());
+        }
+    }
+
+    private static void assertWalkMatches(BoardGeometry geometry, List<int[]> walk) {
+        IncrementalPropagator incremental = new IncrementalPropagator(geometry);
+        int[] previous = new int[0];
+        for (int[] cells : walk) {
+            // the same moves as the generation of the possible grids
+            for (int cell : previous) {
+                if (!contains(cells, cell)) {
+                    incremental.removeBall(cell);
+                }
+            }
+            for (int cell : cells) {
+                if (!contains(previous, cell)) {
+                    incremental.addBall(cell);
+                }
+            }
+            BallSet balls = new BallSet(geometry);
+            for (int cell : cells) {
+                balls.addCell(cell);
+            }
+            assertSameOutcomes(balls, incremental.getOutcomes());
+            previous = cells;
+        }
+    }
+
+    private static void assertSameOutcomes(BallSet balls, int[] outcomes) {
+        Propagator propagator = new Propagator(balls);
+        for (int port = 0; port < outcomes.length; port++) {
+            assertEquals("balls " + balls.toKey() + " port " + port, propagator.propagateRay(port),
+                    outcomes[port]);
+        }
+    }
+
+    private static boolean contains(int[] cells, int cell) {
+        for (int c : cells) {
+            if (c == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the {@code k}-element subsets of {@code {0, ..., n-1}} in revolving-door order, as
+     * defined recursively: the subsets of {@code {0, ..., n-2}}, followed by the
+     * {@code k-1}-element subsets in reverse order, each with {@code n-1} added.
+     */
+    private static List<int[]> revolvingDoor(int n, int k) {
+        List<int[]> combinations = new ArrayList<>();
+        if (k == 0) {
+            combinations.add(new int[0]);
+            return combinations;
+        }
+        if (k == n) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            combinations.add(all);
+            return combinations;
+        }
+        combinations.addAll(revolvingDoor(n - 1, k));
+        List<int[]> smaller = revolvingDoor(n - 1, k - 1);
+        for (int i = smaller.size() - 1; i >= 0; i--) {
+            int[] combination = new int[k];
+            System.arraycopy(smaller.get(i), 0, combination, 0, k - 1);
+            combination[k - 1] = n - 1;
+            combinations.add(combination);
+        }
+        return combinations;
+    }
+}